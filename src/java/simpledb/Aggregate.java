@@ -47,9 +47,12 @@ public class Aggregate extends Operator {
     		gt = child.getTupleDesc().getFieldType(gfield);
     	}
     	
-    	if (child.getTupleDesc().getFieldType(afield).getLen() == 4) {
+    	Type at = child.getTupleDesc().getFieldType(afield);
+    	if (at == Type.INT_TYPE) {
     		agg = new IntegerAggregator(gfield, gt, afield, aop);
-    	} else if (child.getTupleDesc().getFieldType(afield).getLen() == Type.STRING_LEN+4){
+    	} else if (at == Type.LONG_TYPE || at == Type.DATE_TYPE || at == Type.DOUBLE_TYPE) {
+    		agg = new NumericAggregator(gfield, gt, afield, at, aop);
+    	} else {
     		agg = new StringAggregator(gfield, gt, afield, aop);
     	}
     	
@@ -114,6 +117,23 @@ public class Aggregate extends Operator {
     	return aop.toString();
     }
 
+    /**
+     * @return the type of the aggregate value computed by the aggregate
+     *         operator over a field of the specified type: INT_TYPE for
+     *         COUNT and for string fields, LONG_TYPE for SUM of an INT_TYPE,
+     *         LONG_TYPE or DATE_TYPE field, INT_TYPE for the other operators
+     *         over an INT_TYPE field, and the type of the field otherwise
+     * */
+    public static Type resultType(Type afieldtype, Aggregator.Op aop) {
+    	if (aop == Aggregator.Op.COUNT) return Type.INT_TYPE;
+    	if (afieldtype == Type.DOUBLE_TYPE) return Type.DOUBLE_TYPE;
+    	if (afieldtype == Type.INT_TYPE || afieldtype == Type.LONG_TYPE
+    			|| afieldtype == Type.DATE_TYPE) {
+    		return aop == Aggregator.Op.SUM ? Type.LONG_TYPE : afieldtype;
+    	}
+    	return Type.INT_TYPE;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	// some code goes here
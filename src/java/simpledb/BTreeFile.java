@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import simpledb.Predicate.Op;
@@ -24,6 +26,10 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	// opened on first use and kept open for the lifetime of the BTreeFile
+	private FileChannel channel;
+	// mapping of the file, created on the first read if the table is mapped
+	private MappedFile mapping;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -78,39 +84,27 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
+				readPageData(pageBuf, 0);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
 				return p;
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+			else if(id.pgcateg() == BTreePageId.LEAF && Database.getCatalog().isMapped(tableid)) {
+				// build the leaf over the mapped bytes without copying them
+				ByteBuffer slice = getMapping().slice(pageOffset(id.getPageNumber()), BufferPool.getPageSize());
+				if (slice == null) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
+				Debug.log(1, "BTreeFile.readPage: mapped page %d", id.getPageNumber());
+				return new BTreeLeafPage(id, slice, keyField);
+			}
+			else {
+				byte pageBuf[] = new byte[BufferPool.getPageSize()];
+				readPageData(pageBuf, pageOffset(id.getPageNumber()));
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
 					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
@@ -127,14 +121,6 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
@@ -148,15 +134,56 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			Utility.writeFully(getChannel(), ByteBuffer.wrap(data), 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			Utility.writeFully(getChannel(), ByteBuffer.wrap(data), pageOffset(id.getPageNumber()));
+		}
+	}
+
+	/**
+	 * Returns the channel all reads and writes of this file go through,
+	 * opening it on first use.
+	 */
+	private synchronized FileChannel getChannel() throws IOException {
+		if(channel == null) {
+			channel = new RandomAccessFile(f, "rw").getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Returns the read-only mapping of this file, mapping it on first use.
+	 */
+	private synchronized MappedFile getMapping() throws IOException {
+		if(mapping == null) {
+			mapping = new MappedFile(getChannel());
+		}
+		return mapping;
+	}
+
+	/**
+	 * Returns the offset in the file of the internal, leaf or header page with
+	 * the given page number.  Page numbers start at 1, after the root pointer page.
+	 */
+	private static long pageOffset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo-1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Read a whole page from the given offset into the buffer.
+	 * 
+	 * @throws IllegalArgumentException if the page lies beyond the end of the file
+	 */
+	private void readPageData(byte[] pageBuf, long offset) throws IOException {
+		int retval = Utility.readFully(getChannel(), ByteBuffer.wrap(pageBuf), offset);
+		if (retval == 0) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < pageBuf.length) {
+			throw new IllegalArgumentException("Unable to read "
+					+ pageBuf.length + " bytes from BTreeFile");
 		}
 	}
 	
@@ -848,13 +875,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				Utility.writeFully(getChannel(), ByteBuffer.wrap(emptyRootPtrData), 0);
+				Utility.writeFully(getChannel(), ByteBuffer.wrap(emptyLeafData), pageOffset(1));
 			}
 		}
 
@@ -910,12 +934,9 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				emptyPageNo = numPages() + 1;
+				Utility.writeFully(getChannel(), ByteBuffer.wrap(emptyData), pageOffset(emptyPageNo));
 			}
 		}
 
@@ -945,10 +966,8 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		Utility.writeFully(getChannel(), ByteBuffer.wrap(BTreePage.createEmptyPageData()),
+				pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1054,7 +1073,20 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for the filtered tuples
 	 */
 	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-		return new BTreeSearchIterator(this, tid, ipred);
+		return indexIterator(tid, ipred, new ReadAhead(ReadAhead.DEFAULT_DEPTH));
+	}
+
+	/**
+	 * get the specified tuples from the file based on its IndexPredicate value,
+	 * reading the leaf pages to the right of the current one in the background.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @param readAhead - keeps the leaf pages in flight and collects the scan's I/O statistics
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred, ReadAhead readAhead) {
+		return new BTreeSearchIterator(this, tid, ipred, readAhead);
 	}
 
 	/**
@@ -1066,7 +1098,19 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return iterator(tid, new ReadAhead(ReadAhead.DEFAULT_DEPTH));
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in sorted order, reading
+	 * the leaf pages to the right of the current one in the background.
+	 * 
+	 * @param tid - the transaction id
+	 * @param readAhead - keeps the leaf pages in flight and collects the scan's I/O statistics
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid, ReadAhead readAhead) {
+		return new BTreeFileIterator(this, tid, readAhead);
 	}
 
 }
@@ -1081,15 +1125,18 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	TransactionId tid;
 	BTreeFile f;
+	ReadAhead readAhead;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param readAhead - reads the leaf pages to the right of the current one
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, ReadAhead readAhead) {
 		this.f = f;
 		this.tid = tid;
+		this.readAhead = readAhead;
 	}
 
 	/**
@@ -1100,7 +1147,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		// keep the leaf in the pool while iterating over it
+		Database.getBufferPool().pinPage(tid, curp.getId(), Permissions.READ_ONLY);
 		it = curp.iterator();
+		readAhead.start();
+		readAhead.prefetchSiblings(curp);
 	}
 
 	/**
@@ -1116,12 +1167,13 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
+			Database.getBufferPool().unpinPage(curp.getId());
 			if(nextp == null) {
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) readAhead.fetch(tid, nextp, null);
+				readAhead.prefetchSiblings(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1147,7 +1199,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(curp.getId());
+		}
 		curp = null;
+		readAhead.finish();
 	}
 }
 
@@ -1163,17 +1219,20 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	TransactionId tid;
 	BTreeFile f;
 	IndexPredicate ipred;
+	ReadAhead readAhead;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
 	 * @param ipred - the predicate to filter on
+	 * @param readAhead - reads the leaf pages to the right of the current one
 	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, ReadAhead readAhead) {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		this.readAhead = readAhead;
 	}
 
 	/**
@@ -1191,7 +1250,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		// keep the leaf in the pool while iterating over it
+		Database.getBufferPool().pinPage(tid, curp.getId(), Permissions.READ_ONLY);
 		it = curp.iterator();
+		readAhead.start();
+		readAhead.prefetchSiblings(curp);
 	}
 
 	/**
@@ -1229,8 +1292,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				Database.getBufferPool().unpinPage(curp.getId());
+				curp = (BTreeLeafPage) readAhead.fetch(tid, nextp, null);
+				readAhead.prefetchSiblings(curp);
 				it = curp.iterator();
 			}
 		}
@@ -1252,5 +1316,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(curp.getId());
+		}
+		curp = null;
+		readAhead.finish();
 	}
 }
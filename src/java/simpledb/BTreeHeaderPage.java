@@ -264,6 +264,16 @@ public class BTreeHeaderPage implements Page {
 			return null;
 	}
 
+	/**
+	 * This page keeps no page LSN, so recovery always redoes its changes
+	 */
+	public long getLSN() {
+		return 0;
+	}
+
+	public void setLSN(long lsn) {
+	}
+
 	/**
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
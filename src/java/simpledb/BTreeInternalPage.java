@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -45,7 +46,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of entry slots, and extra
-	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
+	 * bytes for the page LSN (see {@link Page#getLSN}), the parent pointer, one extra child pointer (a node with m entries 
 	 * has m+1 pointers to children), and the category of all child pages (either 
 	 * leaf or internal).
 	 *  Specifically, the number of entries is equal to: <p>
@@ -70,6 +71,8 @@ public class BTreeInternalPage extends BTreePage {
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
+		this.lsn = Page.decodeLSN(id, dis.readLong(), ByteBuffer.wrap(data));
+
 		// Read the parent pointer
 		try {
 			Field f = Type.INT_TYPE.parse(dis);
@@ -117,9 +120,9 @@ public class BTreeInternalPage extends BTreePage {
 	public int getMaxEntries() {        
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
-		// extraBits are: one parent pointer, 1 byte for child page category, 
+		// extraBits are: the page LSN, one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+		int extraBits = LSN_SIZE * 8 + 2 * INDEX_SIZE * 8 + 8 + 1; 
 		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
@@ -236,8 +239,9 @@ public class BTreeInternalPage extends BTreePage {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
-		// write out the parent pointer
+		// write out the page LSN and the parent pointer
 		try {
+			dos.writeLong(Page.encodeLSN(lsn));
 			dos.writeInt(parent);
 
 		} catch (IOException e) {
@@ -315,7 +319,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
+		int zerolen = BufferPool.getPageSize() - (LSN_SIZE + INDEX_SIZE + 1 + header.length + 
 				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
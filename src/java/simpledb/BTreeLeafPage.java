@@ -2,22 +2,32 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The tuples of a table with a VARCHAR field vary in size, and its leaf
+ * pages store each one in a record of its own length behind a record
+ * directory (see {@link RecordDirectory}) instead of in slots of the
+ * largest size.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements SlottedPage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
+	// total length of the records of a table whose tuples are not of fixed size
+	private int recordBytes;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
+	// set instead of oldData when the page is a view of a read-only mapping
+	private ByteBuffer mappedData;
 
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
@@ -42,9 +52,10 @@ public class BTreeLeafPage extends BTreePage {
 
 	/**
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
-	 * The format of a BTreeLeafPage is a set of header bytes indicating
+	 * The format of a BTreeLeafPage is the page LSN (see {@link Page#getLSN}),
+	 * a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the page LSN and the parent and sibling pointers.
 	 *  Specifically, the number of tuples is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
@@ -53,6 +64,9 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * If the tuples of the table are not of fixed size, the pointers are
+	 * followed by a record directory instead (see {@link RecordDirectory}).
+	 * 
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -62,9 +76,24 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from the bytes between the position and the limit
+	 * of a buffer; the buffer's position is not changed.  If the buffer is
+	 * read-only, as the pages of a memory-mapped table are, the page keeps
+	 * a reference to it as its before image instead of copying its bytes.
+	 * 
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 * @see MappedFile
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data.duplicate()));
+
+		this.lsn = Page.decodeLSN(id, dis.readLong(), data);
 
 		// Read the parent and sibling pointers
 		try {
@@ -90,29 +119,51 @@ public class BTreeLeafPage extends BTreePage {
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		if (td.isFixedSize()) {
+			for (int i=0; i<header.length; i++)
+				header[i] = dis.readByte();
+
+			try{
+				// allocate and read the actual records of this page
+				for (int i=0; i<tuples.length; i++)
+					tuples[i] = readNextTuple(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
+		} else {
+			ByteBuffer page = data.slice();
+			int[] offsets = new int[numSlots];
+			int[] lengths = new int[numSlots];
+			RecordDirectory.read(page, getHeaderOffset(), BufferPool.getPageSize(), offsets, lengths);
+			for (int i=0; i<numSlots; i++) {
+				if (lengths[i] > 0) {
+					markSlotUsed(i, true);
+					tuples[i] = RecordDirectory.fromRecord(td, page, offsets[i]);
+					tuples[i].setRecordId(new RecordId(pid, i));
+					recordBytes += lengths[i];
+				}
+			}
 		}
 		dis.close();
 
-		setBeforeImage();
+		if (data.isReadOnly()) {
+			mappedData = data;
+		} else {
+			setBeforeImage();
+		}
 	}
 
 	/** 
 	 * Retrieve the maximum number of tuples this page can hold.
 	 */
 	public int getMaxTuples() {        
+		if (!td.isFixedSize()) {
+			return RecordDirectory.numSlots(td, BufferPool.getPageSize() - getHeaderOffset());
+		}
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8; 
+		// extraBits are: page LSN, left sibling pointer, right sibling pointer, parent pointer
+		int extraBits = (LSN_SIZE + 3 * INDEX_SIZE) * 8; 
 		int tuplesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
 		return tuplesPerPage;
 	}
@@ -133,10 +184,14 @@ public class BTreeLeafPage extends BTreePage {
 	public BTreeLeafPage getBeforeImage(){
 		try {
 			byte[] oldDataRef = null;
+			ByteBuffer mappedDataRef = null;
 			synchronized(oldDataLock)
 			{
 				oldDataRef = oldData;
+				mappedDataRef = mappedData;
 			}
+			if (mappedDataRef != null)
+				return new BTreeLeafPage(pid,mappedDataRef,keyField);
 			return new BTreeLeafPage(pid,oldDataRef,keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -150,6 +205,7 @@ public class BTreeLeafPage extends BTreePage {
 		synchronized(oldDataLock)
 		{
 			oldData = getPageData().clone();
+			mappedData = null;
 		}
 	}
 
@@ -199,12 +255,16 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		if (!td.isFixedSize()) {
+			return getRecordPageData();
+		}
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
-		// write out the parent and sibling pointers
+		// write out the page LSN, and the parent and sibling pointers
 		try {
+			dos.writeLong(Page.encodeLSN(lsn));
 			dos.writeInt(parent);
 
 		} catch (IOException e) {
@@ -262,7 +322,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + LSN_SIZE + 3 * INDEX_SIZE); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -279,6 +339,19 @@ public class BTreeLeafPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	// getPageData for a table whose tuples are not of fixed size
+	private byte[] getRecordPageData() {
+		byte[] page = new byte[BufferPool.getPageSize()];
+		ByteBuffer.wrap(page).putLong(Page.encodeLSN(lsn)).putInt(parent).putInt(leftSibling).putInt(rightSibling);
+		byte[][] records = new byte[numSlots][];
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i))
+				records[i] = RecordDirectory.toRecord(tuples[i]);
+		}
+		RecordDirectory.write(page, getHeaderOffset(), records);
+		return page;
+	}
+
 	/**
 	 * Delete the specified tuple from the page;  the tuple should be updated to reflect
 	 *   that it is no longer stored on any page.
@@ -294,6 +367,8 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null tuple.");
+		if (!td.isFixedSize())
+			recordBytes -= td.getCompactSize(tuples[rid.getTupleNumber()]);
 		markSlotUsed(rid.getTupleNumber(), false);
 		t.setRecordId(null);
 	}
@@ -321,6 +396,12 @@ public class BTreeLeafPage extends BTreePage {
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
+		int len = 0;
+		if (!td.isFixedSize()) {
+			len = td.getCompactSize(t);
+			if (getFreeBytes() < RecordDirectory.ENTRY_SIZE + len)
+				throw new DbException("called addTuple on page with no room for the tuple.");
+		}
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
@@ -356,6 +437,7 @@ public class BTreeLeafPage extends BTreePage {
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
 		tuples[goodSlot] = t;
+		recordBytes += len;
 	}
 
 	/**
@@ -438,20 +520,50 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		int cnt = 0;
+		for(int i=0; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page.  If the tuples of
+	 * the table are not of fixed size, this is the number of tuples of
+	 * the largest size that still fit, so that a page with empty slots
+	 * always has room for another tuple.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
+		int cnt = numSlots - getNumTuples();
+		if (!td.isFixedSize())
+			cnt = Math.min(cnt, getFreeBytes() / (RecordDirectory.ENTRY_SIZE + td.getSize()));
 		return cnt;
 	}
 
+	// the bytes left for the records of a table whose tuples are not of
+	// fixed size and their directory entries
+	private int getFreeBytes() {
+		return BufferPool.getPageSize() - getHeaderOffset()
+				- RecordDirectory.usedBytes(getNumTuples(), recordBytes);
+	}
+
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	public int getHeaderOffset() {
+		// after the page LSN and the parent and sibling pointers
+		return LSN_SIZE + 3 * INDEX_SIZE;
+	}
+
+	public int getSlotsOffset() {
+		return LSN_SIZE + 3 * INDEX_SIZE + header.length;
+	}
+
+	public int getSlotSize() {
+		return td.isFixedSize() ? td.getSize() : 0;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -21,6 +21,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	protected volatile long lsn;
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
 
@@ -128,6 +129,14 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
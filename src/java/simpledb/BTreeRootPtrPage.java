@@ -138,6 +138,16 @@ public class BTreeRootPtrPage implements Page {
 			return null;
 	}
 
+	/**
+	 * This page keeps no page LSN, so recovery always redoes its changes
+	 */
+	public long getLSN() {
+		return 0;
+	}
+
+	public void setLSN(long lsn) {
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
@@ -17,6 +17,7 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private ReadAhead readAhead;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -38,11 +39,41 @@ public class BTreeScan implements OpIterator {
 	 *            in sorted order
 	 */
 	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+		this(tid, tableid, tableAlias, ipred, ReadAhead.DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Creates a B+ tree scan that keeps the given number of leaf pages in
+	 * flight ahead of the current one.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan.
+	 * @param tableAlias
+	 *            the alias of this table (needed by the parser)
+	 * @param ipred
+	 * 			  The index predicate to match. If null, the scan will return all tuples
+	 *            in sorted order
+	 * @param prefetchDepth
+	 *            the number of leaf pages to read ahead; 0 disables read-ahead
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred,
+			int prefetchDepth) {
 		this.tid = tid;
 		this.ipred = ipred;
+		this.readAhead = new ReadAhead(prefetchDepth);
 		reset(tableid,tableAlias);
 	}
 
+	/**
+	 * @return the read-ahead state of this scan, including the time it spent
+	 *       waiting for I/O
+	 */
+	public ReadAhead getReadAhead() {
+		return readAhead;
+	}
+
 	/**
 	 * @return
 	 *       return the table name of the table the operator scans. This should
@@ -77,10 +108,10 @@ public class BTreeScan implements OpIterator {
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		if(ipred == null) {
-			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).iterator(tid, readAhead);
 		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred, readAhead);
 		}
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * BackgroundThread is the loop shared by the daemon threads that do
+ * deferred work for another part of the database, such as the
+ * {@link LogWriter} and the {@link PageCleaner}.
+ * <p>
+ * The thread runs a round of work at a fixed interval, or sooner when it is
+ * woken up.  A thread whose rounds have found nothing to do for a number of
+ * rounds in a row stops; its owner starts a new one when there is work
+ * again.  A round that fails with an IOException stops the thread too.
+ */
+abstract class BackgroundThread extends Thread {
+
+    private final long intervalMs;
+    private final int idleRounds;
+    private boolean signalled = false;
+    private boolean stopped = false;
+
+    /**
+     * @param name the name of the thread
+     * @param intervalMs the time between two rounds
+     * @param idleRounds the number of rounds without work after which the
+     *     thread stops
+     */
+    BackgroundThread(String name, long intervalMs, int idleRounds) {
+        super(name);
+        this.intervalMs = intervalMs;
+        this.idleRounds = idleRounds;
+        setDaemon(true);
+    }
+
+    /**
+     * Do one round of work.
+     *
+     * @return the amount of work done, 0 if there was nothing to do
+     */
+    abstract long runRound() throws IOException;
+
+    /**
+     * Called when a round failed, after the thread has stopped.  Does
+     * nothing by default.
+     */
+    void roundFailed(IOException e) {
+    }
+
+    /** Start a round now rather than at the end of the interval. */
+    synchronized void wakeUp() {
+        signalled = true;
+        notifyAll();
+    }
+
+    /**
+     * Stop the thread and wait for the round in progress to finish.
+     */
+    void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        if (Thread.currentThread() != this) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Returns true once the thread has stopped or is about to. */
+    synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    public void run() {
+        int idle = 0;
+        while (true) {
+            synchronized (this) {
+                if (!signalled && !stopped) {
+                    try {
+                        wait(intervalMs);
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                }
+                signalled = false;
+                if (stopped) {
+                    return;
+                }
+            }
+            long done;
+            try {
+                done = runRound();
+            } catch (IOException e) {
+                synchronized (this) {
+                    stopped = true;
+                }
+                roundFailed(e);
+                return;
+            }
+            if (done > 0) {
+                idle = 0;
+            } else if (++idle >= idleRounds) {
+                synchronized (this) {
+                    if (!signalled) {
+                        stopped = true;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
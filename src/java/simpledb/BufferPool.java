@@ -1,10 +1,24 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Random;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,6 +28,40 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * There is no lock on the whole pool.  Every page is covered by one of
+ * {@link #STRIPES} latches, chosen by the hash of its PageId, which is held
+ * while the page is read from disk, installed, written or discarded, so that
+ * threads working on pages of different stripes never wait for each other.
+ * Pages that are already cached are returned without taking any latch.
+ * The free frames and the replacement policy are guarded by a separate frame
+ * latch, which is only held for short bookkeeping.  An eviction picks and
+ * claims its victim under the frame latch, then releases it before it
+ * try-locks the stripe of the victim and drops the page; if the stripe is
+ * busy, it picks another victim.  So the frame latch can be taken while
+ * holding a stripe latch but never the other way around.
+ * <p>
+ * A caller that keeps using a page over several calls, such as a scan
+ * iterating over its tuples, pins it with {@link #pinPage} and unpins it
+ * with {@link #unpinPage} when it is done.  Every frame has a pin count, and
+ * only frames with no pins are considered for eviction.
+ * <p>
+ * A committing transaction does not write its pages.  Instead the before
+ * and after images of the pages it dirtied are written to the log, which is
+ * forced to disk, and the pages become <em>unwritten</em>: clean as far as
+ * transactions are concerned, but newer than their copy on disk.  A
+ * background {@link PageCleaner} writes unwritten pages out, so evictions
+ * usually find pages that can simply be dropped; if there are none, an
+ * eviction writes an unwritten page itself.  Every write of a page is
+ * reported to {@link LogFile#pageWritten}, which keeps the dirty page table
+ * that checkpoints record instead of flushing the pool.
+ * <p>
+ * As a last resort, a page dirtied by a transaction that is still running is
+ * evicted as well (STEAL): its before and after images are written to the
+ * log and the log is forced before the page is written to its table.  If
+ * the transaction aborts, {@link LogFile#rollback} puts the before images
+ * of such pages back; after a crash, {@link LogFile#recover} does the same
+ * for every transaction that did not commit.
  * 
  * @Threadsafe, all fields are final
  */
@@ -27,23 +75,86 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Scans of tables larger than this fraction of the pool go through a
+    BufferRing instead of the whole pool. Smaller tables are still cached
+    in full, so that scanning them again does not touch the disk. */
+    public static final double SCAN_RING_THRESHOLD = 0.75;
+    /** Maximum number of frames in a BufferRing. */
+    public static final int SCAN_RING_PAGES = 8;
+
+    /** Number of background threads reading pages ahead of scans. */
+    public static final int IO_THREADS = 4;
+    private static ExecutorService ioExecutor;
+
+    /** Number of latches the pages are spread over; a power of two. */
+    public static final int STRIPES = 64;
+
     private int numPages;
-    private Page[] pages;
-    private Random rand;
+    /** Frames holding the cached pages; a null entry is a free frame. */
+    private final AtomicReferenceArray<Page> pages;
+    /** Number of pins on the page in each frame. */
+    private final AtomicIntegerArray pinCounts;
+    /** Pins still held on pages that were discarded while pinned. */
+    private final ConcurrentHashMap<PageId, Integer> droppedPins =
+    		new ConcurrentHashMap<PageId, Integer>();
+    /** Page table mapping each cached PageId to the index of its frame in pages. */
+    private final ConcurrentHashMap<PageId, Integer> pageTable;
+    /** Latches of the pages, indexed by the hash of their PageId. */
+    private final ReentrantLock[] stripes;
+    /** Guards freeFrames and the frame changes reported to the policy. */
+    private final Object frameLatch = new Object();
+    /** Indexes of the frames in pages that currently hold no page. */
+    private final ArrayDeque<Integer> freeFrames;
+    /** Frames whose page an eviction has chosen and is dropping; guarded by frameLatch. */
+    private final HashSet<Integer> evicting = new HashSet<Integer>();
+    private final ReplacementPolicy policy;
+    private double scanRingThreshold = SCAN_RING_THRESHOLD;
+    /** Pages being read ahead of a scan, handed over to the pool on the first getPage() */
+    private final ConcurrentHashMap<PageId, Future<Page>> prefetched =
+    		new ConcurrentHashMap<PageId, Future<Page>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
     ConcurrentHashMap<TransactionId, HashSet<PageId>> transPages;
-    TransLock tLock;
+    final LockManager lockManager;
+    /** Committed pages that are newer than their copy on disk. */
+    private final Set<PageId> unwritten = ConcurrentHashMap.newKeySet();
+    /** Takes the shared locks the cleaner and evictions write pages under. */
+    private final TransactionId writerTid = new TransactionId();
+    private PageCleaner cleaner;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.Kind.CLOCK);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy used to pick pages to evict.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
         // some code goes here
     	this.numPages = numPages;
-    	pages = new Page[numPages];
-    	rand = new Random();
-    	tLock = new TransLock();
+    	pages = new AtomicReferenceArray<Page>(numPages);
+    	pinCounts = new AtomicIntegerArray(numPages);
+    	pageTable = new ConcurrentHashMap<PageId, Integer>(numPages * 2);
+    	stripes = new ReentrantLock[STRIPES];
+    	for (int i = 0; i < STRIPES; i++) {
+    		stripes[i] = new ReentrantLock();
+    	}
+    	freeFrames = new ArrayDeque<Integer>(numPages);
+    	for (int i = 0; i < numPages; i++) {
+    		freeFrames.add(i);
+    	}
+    	this.policy = policy.create(numPages);
+    	lockManager = new LockManager();
     	transPages = new ConcurrentHashMap<TransactionId, HashSet<PageId>>();
     }
     
@@ -76,38 +187,383 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws DbException if READ_WRITE permission is requested on a page of
+     *     a memory-mapped table
+     * @see Catalog#isMapped(int)
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
             // some code goes here
-	    	if (perm == Permissions.READ_ONLY) {
-	    		tLock.sLock(tid, pid);
-	    	} else if(perm == Permissions.READ_WRITE) {
-	    		tLock.xLock(tid, pid);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, on behalf
+     * of a scan that reads through a private ring of frames.  Behaves like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, except that a page
+     * which has to be read from disk takes the frame of the page the ring
+     * read the longest ago (if that page is still cached and clean) rather
+     * than evicting a page chosen by the replacement policy.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring of frames, or null to use the whole pool
+     * @see #getScanRing(int)
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        return fetchPage(tid, pid, perm, ring, false);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId,
+     * Permissions)} and pin it, so that it stays in the pool until it is
+     * unpinned.  Every call must be matched by a call to unpinPage().
+     * Pages of memory-mapped tables are not cached and need no pin.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @see #unpinPage(PageId)
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return fetchPage(tid, pid, perm, null, true);
+    }
+
+    /**
+     * Retrieve and pin the specified page on behalf of a scan that reads
+     * through a private ring of frames.
+     *
+     * @see #pinPage(TransactionId, PageId, Permissions)
+     * @see #getPage(TransactionId, PageId, Permissions, BufferRing)
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        return fetchPage(tid, pid, perm, ring, true);
+    }
+
+    /**
+     * Release a pin taken by pinPage().  Once a page has no pins left it may
+     * be evicted again.  A pinned page stays in its frame until it is
+     * unpinned, unless it is discarded; the pins of a discarded page are
+     * released first, so they never count against the frame the page is
+     * loaded into next.
+     *
+     * @param pid the ID of the pinned page
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void unpinPage(PageId pid) {
+    	ReentrantLock latch = latch(pid);
+    	latch.lock();
+    	try {
+    		Integer dropped = droppedPins.get(pid);
+    		if (dropped != null) {
+    			if (dropped == 1) {
+    				droppedPins.remove(pid);
+    			} else {
+    				droppedPins.put(pid, dropped - 1);
+    			}
+    			return;
+    		}
+    		Integer frame = pageTable.get(pid);
+    		if (frame == null && Database.getCatalog().isMapped(pid.getTableId())) {
+    			// pages of mapped tables are not cached and take no pins
+    			return;
+    		}
+    		if (frame == null || pinCounts.get(frame) == 0) {
+    			throw new IllegalStateException("page " + pid + " is not pinned");
+    		}
+    		pinCounts.decrementAndGet(frame);
+    	} finally {
+    		latch.unlock();
+    	}
+    }
+
+    /** Returns the number of pins on the specified page, 0 if it is not cached. */
+    public int getPinCount(PageId pid) {
+    	Integer frame = pageTable.get(pid);
+    	return frame == null ? 0 : pinCounts.get(frame);
+    }
+
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring,
+            boolean pin) throws TransactionAbortedException, DbException {
+	    	// pages of mapped tables are never cached, so only a miss can be one
+	    	if (lookupPage(pid) == null && Database.getCatalog().isMapped(pid.getTableId())) {
+	    		return getMappedPage(pid, perm);
 	    	}
-        	int vacancy = -1;
-        	while (vacancy == -1) {
-    	    	for (int i=0; i < pages.length; i++) {
-    	    		if (pages[i] == null) {
-    	    			vacancy = i;
-    	    			break;
-    	    		}
-    	    		if (pages[i].getId().equals(pid)) {
-    	    			return pages[i];
-    	    		}
-    	    	}
-    	    	if (vacancy == -1) {
-    	    		evictPage();
-    	    	}
+	    	lockManager.acquire(tid, pid, perm);
+        	Page page;
+        	if (!pin) {
+        		page = lookupPage(pid);
+        		if (page != null) {
+        			recordHit(pid);
+        			return page;
+        		}
+        	}
+        	ReentrantLock latch = latch(pid);
+        	if (ring != null && lookupPage(pid) == null) {
+        		// done before latching pid, so that only one stripe is latched at a time
+        		recycleRingFrame(ring.replace(pid));
+        	}
+        	latch.lock();
+        	try {
+        		// another thread may have loaded the page while we waited
+        		page = lookupPage(pid);
+        		if (page != null) {
+        			recordHit(pid);
+        		} else {
+        			misses.incrementAndGet();
+        			DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        			page = takePrefetched(pid);
+        			if (page == null) {
+        				page = dbfile.readPage(pid);
+        			}
+        			installPage(page);
+        		}
+        		if (pin) {
+        			// the latch keeps the page from being evicted before it is pinned
+        			pinCounts.incrementAndGet(pageTable.get(pid));
+        		}
+        		return page;
+        	} finally {
+        		latch.unlock();
         	}
-        	DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        	Page page = dbfile.readPage(pid);
-        	pages[vacancy] = page;
-        	return page;
         }
 
- 
-    
+    /** Returns the latch of the stripe the specified page belongs to. */
+    ReentrantLock latch(PageId pid) {
+    	int h = pid.hashCode();
+    	return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Pages of a memory-mapped table are views of the mapping and the table
+     * is never modified, so they are neither locked nor cached: the DbFile
+     * builds them over the mapping on every request.
+     */
+    private Page getMappedPage(PageId pid, Permissions perm) throws DbException {
+    	if (perm == Permissions.READ_WRITE) {
+    		throw new DbException("table " + pid.getTableId() + " is mapped read-only");
+    	}
+    	return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Starts reading the specified page in the background, unless it is
+     * cached or already being read.  No lock is acquired: the page is kept
+     * aside and enters the pool when a transaction calls getPage() for it,
+     * with the usual locking.
+     *
+     * @param pid the ID of the page to read ahead
+     * @return the pending read of the page, or null if it is in the pool or
+     *     belongs to a memory-mapped table
+     * @see ReadAhead
+     */
+    public Future<Page> prefetchPage(final PageId pid) {
+    	ReentrantLock latch = latch(pid);
+    	latch.lock();
+    	try {
+    		if (lookupPage(pid) != null || Database.getCatalog().isMapped(pid.getTableId())) {
+    			return null;
+    		}
+    		Future<Page> f = prefetched.get(pid);
+    		if (f == null) {
+    			f = getIoExecutor().submit(new Callable<Page>() {
+    				public Page call() {
+    					return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    				}
+    			});
+    			prefetched.put(pid, f);
+    		}
+    		return f;
+    	} finally {
+    		latch.unlock();
+    	}
+    }
+
+    /**
+     * Drops a page read ahead by prefetchPage() that is no longer needed.
+     *
+     * @param pid the ID of the page that will not be used
+     */
+    public void cancelPrefetch(PageId pid) {
+    	Future<Page> f = prefetched.remove(pid);
+    	if (f != null) {
+    		f.cancel(false);
+    	}
+    }
+
+    /**
+     * Returns the page read ahead for pid, waiting for the read to finish if
+     * necessary, or null if there is none or the read failed.
+     */
+    private Page takePrefetched(PageId pid) {
+    	Future<Page> f = prefetched.remove(pid);
+    	if (f == null) {
+    		return null;
+    	}
+    	try {
+    		return f.get();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	} catch (ExecutionException e) {
+    	} catch (CancellationException e) {
+    	}
+    	return null;
+    }
+
+    private static synchronized ExecutorService getIoExecutor() {
+    	if (ioExecutor == null) {
+    		ioExecutor = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+    			public Thread newThread(Runnable r) {
+    				Thread t = new Thread(r, "BufferPool I/O");
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    	}
+    	return ioExecutor;
+    }
+
+    /**
+     * Returns a ring of frames for a sequential scan of a table with the
+     * given number of pages, or null if the table is small enough to be
+     * scanned through the whole pool.
+     *
+     * @param tablePages the number of pages the scan is going to read
+     */
+    public BufferRing getScanRing(int tablePages) {
+    	if (tablePages <= numPages * scanRingThreshold) {
+    		return null;
+    	}
+    	return new BufferRing(Math.max(2, Math.min(SCAN_RING_PAGES, numPages / 4)));
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public void setScanRingThreshold(double threshold) {
+    	scanRingThreshold = threshold;
+    }
+
+    /**
+     * Drops a page that a scan ring read earlier, unless it has been dirtied
+     * since, so that the ring's next page can take its frame.
+     */
+    private void recycleRingFrame(PageId old) {
+    	if (old == null) {
+    		return;
+    	}
+    	ReentrantLock latch = latch(old);
+    	latch.lock();
+    	try {
+    		Page p = lookupPage(old);
+    		if (p != null && p.isDirty() == null && getPinCount(old) == 0
+    				&& !unwritten.contains(old)) {
+    			discardPage(old);
+    		}
+    	} finally {
+    		latch.unlock();
+    	}
+    }
+
+    /**
+     * Returns the cached copy of the specified page, or null if it is not
+     * in the buffer pool. The frame is re-checked after the page table lookup
+     * since it may have been reassigned by a concurrent eviction.
+     */
+    private Page lookupPage(PageId pid) {
+    	Integer frame = pageTable.get(pid);
+    	if (frame == null) {
+    		return null;
+    	}
+    	Page page = pages.get(frame);
+    	if (page == null || !page.getId().equals(pid)) {
+    		return null;
+    	}
+    	return page;
+    }
+
+    /** Tell the replacement policy that a cached page was used again. */
+    private void recordHit(PageId pid) {
+    	hits.incrementAndGet();
+    	Integer frame = pageTable.get(pid);
+    	if (frame != null) {
+    		policy.pageAccessed(frame);
+    	}
+    }
+
+    /**
+     * Places the given page in the buffer pool, replacing any cached version
+     * of the same page, and evicting another page if no frame is free.
+     * The caller must hold the latch of the page.
+     */
+    private void installPage(Page page) throws DbException {
+    	PageId pid = page.getId();
+    	// a copy read ahead from disk would be out of date from now on
+    	cancelPrefetch(pid);
+    	Integer frame = pageTable.get(pid);
+    	if (frame != null) {
+    		pages.set(frame, page);
+    		policy.pageAccessed(frame);
+    		return;
+    	}
+    	synchronized (frameLatch) {
+    		frame = freeFrames.poll();
+    	}
+    	if (frame == null) {
+    		frame = evictPage();
+    	}
+    	synchronized (frameLatch) {
+    		pages.set(frame, page);
+    		policy.pageLoaded(frame, pid);
+    	}
+    	pageTable.put(pid, frame);
+    }
+
+    /**
+     * Installs the pages dirtied by an insert or delete.  Each page is pinned
+     * until all of them are in the pool, so installing one cannot evict
+     * another.
+     */
+    private void installDirtyPages(TransactionId tid, ArrayList<Page> dirtied) throws DbException {
+    	ArrayList<PageId> pinned = new ArrayList<PageId>(dirtied.size());
+    	HashSet<PageId> dirtiedByTid = transPages.get(tid);
+    	if (dirtiedByTid == null) {
+    		transPages.putIfAbsent(tid, new HashSet<PageId>());
+    		dirtiedByTid = transPages.get(tid);
+    	}
+    	try {
+    		for (Page page : dirtied) {
+    			ReentrantLock latch = latch(page.getId());
+    			latch.lock();
+    			try {
+    				dirtiedByTid.add(page.getId());
+    				page.markDirty(true, tid);
+    				installPage(page);
+    				pinCounts.incrementAndGet(pageTable.get(page.getId()));
+    				pinned.add(page.getId());
+    			} finally {
+    				latch.unlock();
+    			}
+    		}
+    	} finally {
+    		for (PageId pid : pinned) {
+    			unpinPage(pid);
+    		}
+    	}
+    }
+
+    /** Returns the number of getPage() calls that found the page in the pool. */
+    public long getHitCount() {
+    	return hits.get();
+    }
+
+    /** Returns the number of getPage() calls that had to read the page from disk. */
+    public long getMissCount() {
+    	return misses.get();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -120,8 +576,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-    	tLock.sUnLock(tid, pid);
-    	tLock.xUnLock(tid, pid);
+    	lockManager.release(tid, pid);
     }
 
     /**
@@ -139,7 +594,16 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-    	return tLock.hasLock(tid, p);
+    	return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Return true if a transaction other than the specified one holds an
+     * exclusive lock on the specified page, so that getPage() would block.
+     * The answer may be out of date by the time the caller acts on it.
+     */
+    public boolean isWriteLocked(TransactionId tid, PageId p) {
+    	return lockManager.isWriteLockedByOther(tid, p);
     }
     /**
      * Commit or abort a given transaction; release all locks associated to
@@ -152,26 +616,199 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+    	LogFile log = Database.getLogFile();
     	if (commit) {
-    		flushPages(tid);
+    		logDirtyPages(tid);
+    		// a transaction that was not committed through Transaction
+    		// still needs a COMMIT record for its logged pages
+    		if (log.isLive(tid)) {
+    			log.logCommit(tid);
+    		}
     	} else {
-    		if (transPages.containsKey(tid)) {
-	    		for (PageId pid: transPages.get(tid)) {
-	    			DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-	    			Page page = dbfile.readPage(pid);
-	    			for (int i = 0; i < pages.length; i++) {
-	    				if (pages[i].getId() == pid) {
-	    					pages[i] = page;
-	    					break;
-	    				}    				
+    		// pages that were logged, some of which may have been evicted,
+    		// are rolled back from the log
+    		if (log.isLive(tid)) {
+    			log.logAbort(tid);
+    		}
+    		HashSet<PageId> dirtied = transPages.remove(tid);
+    		if (dirtied != null) {
+	    		for (PageId pid: dirtied) {
+	    			ReentrantLock latch = latch(pid);
+	    			latch.lock();
+	    			try {
+	    				Integer frame = pageTable.get(pid);
+	    				if (frame == null) continue;
+	    				// the before image is the last committed state, which
+	    				// may not have reached the disk yet
+	    				unwritten.add(pid);
+	    				pages.set(frame, pages.get(frame).getBeforeImage());
+	    			} finally {
+	    				latch.unlock();
 	    			}
 	    		}
     		}
     	}
-    	if (transPages.containsKey(tid)) {
-    		transPages.get(tid).clear();
+    	lockManager.releaseAll(tid);
+    }
+
+    /**
+     * Write an UPDATE record with the before and after image of every page
+     * the transaction dirtied, force the log, and hand the pages over to the
+     * page cleaner, which writes them to disk later.  Called when the
+     * transaction commits, before its COMMIT record is written.
+     *
+     * @param tid the committing transaction
+     */
+    public void logDirtyPages(TransactionId tid) throws IOException {
+    	HashSet<PageId> dirtied = transPages.remove(tid);
+    	if (dirtied == null) {
+    		return;
+    	}
+    	LogFile log = Database.getLogFile();
+    	ArrayList<Page> cached = new ArrayList<Page>();
+    	HashSet<Page> logged = new HashSet<Page>();
+    	for (PageId pid : dirtied) {
+    		Page p = lookupPage(pid);
+    		if (p == null) {
+    			continue;
+    		}
+    		// pages flushed while the transaction ran are clean, but still
+    		// need a new before image
+    		cached.add(p);
+    		if (tid.equals(p.isDirty())) {
+    			p.setLSN(log.logWrite(tid, p.getBeforeImage(), p));
+    			logged.add(p);
+    		}
+    	}
+    	if (!logged.isEmpty()) {
+    		log.groupForce();
+    	}
+    	for (Page p : cached) {
+    		ReentrantLock latch = latch(p.getId());
+    		latch.lock();
+    		try {
+    			if (logged.contains(p)) {
+    				// added before the page looks clean, so that it is never
+    				// dropped without being written
+    				unwritten.add(p.getId());
+    				p.markDirty(false, null);
+    			}
+    			p.setBeforeImage();
+    		} finally {
+    			latch.unlock();
+    		}
+    	}
+    	if (!logged.isEmpty()) {
+    		startCleaner().wakeUp();
+    	}
+    }
+
+    /** Returns the running page cleaner, starting one if there is none. */
+    private synchronized PageCleaner startCleaner() {
+    	if (cleaner == null || cleaner.isStopped()) {
+    		cleaner = new PageCleaner(this);
+    		cleaner.start();
+    	}
+    	return cleaner;
+    }
+
+    /**
+     * Write the unwritten pages that can be written right now: pages that
+     * nobody has dirtied again and that no transaction holds a write lock on.
+     * Called by the page cleaner.
+     *
+     * @return the number of unwritten pages left
+     */
+    int cleanPages() {
+    	for (PageId pid : unwritten) {
+    		ReentrantLock latch = latch(pid);
+    		if (!latch.tryLock()) {
+    			continue;
+    		}
+    		try {
+    			writeUnwritten(pid);
+    		} catch (IOException e) {
+    			// left for the next round
+    		} finally {
+    			latch.unlock();
+    		}
+    	}
+    	return unwritten.size();
+    }
+
+    /**
+     * Write an unwritten page unless it has been dirtied again or a
+     * transaction is changing it.  The caller must hold the page's latch.
+     *
+     * @return true if the page was written or is no longer cached
+     */
+    private boolean writeUnwritten(PageId pid) throws IOException {
+    	Page p = lookupPage(pid);
+    	if (p == null) {
+    		unwritten.remove(pid);
+    		return true;
+    	}
+    	// a transaction holding a write lock may be changing the page
+    	// before marking it dirty
+    	if (p.isDirty() != null || !lockManager.tryAcquire(writerTid, pid, Permissions.READ_ONLY)) {
+    		return false;
+    	}
+    	try {
+    		Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+    		Database.getLogFile().pageWritten(pid);
+    		unwritten.remove(pid);
+    		return true;
+    	} finally {
+    		lockManager.release(writerTid, pid);
+    	}
+    }
+
+    /**
+     * Write a version of a page read from the log to its table and drop the
+     * cached copy, so that the next getPage() reads it back.  Used by the
+     * recovery manager to undo and redo changes.
+     *
+     * @param p the page to restore
+     */
+    public void restorePage(Page p) throws IOException {
+    	PageId pid = p.getId();
+    	ReentrantLock latch = latch(pid);
+    	latch.lock();
+    	try {
+    		Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+    		Database.getLogFile().pageWritten(pid);
+    		discardPage(pid);
+    	} finally {
+    		latch.unlock();
+    	}
+    }
+
+    /** Stop the page cleaner without writing the pages it has not written. */
+    void stopCleaner() {
+    	PageCleaner c;
+    	synchronized (this) {
+    		c = cleaner;
+    		cleaner = null;
+    	}
+    	if (c != null) {
+    		c.shutdown();
+    	}
+    }
+
+    /**
+     * Write the unwritten pages and stop the page cleaner.  Called when the
+     * pool is replaced by a new one.
+     */
+    public void shutdown() throws IOException {
+    	stopCleaner();
+    	for (PageId pid : unwritten) {
+    		try {
+    			flushPage(pid);
+    		} catch (NoSuchElementException e) {
+    			// the table was removed from the catalog
+    			unwritten.remove(pid);
+    		}
     	}
-    	tLock.clearTransLock(tid);
     }
 
     /**
@@ -193,11 +830,12 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+    	if (Database.getCatalog().isMapped(tableId)) {
+    		throw new DbException("table " + tableId + " is mapped read-only");
+    	}
     	DbFile dbfile = Database.getCatalog().getDatabaseFile(tableId);
     	ArrayList<Page> res = dbfile.insertTuple(tid, t);
-    	for (Page i: res) {
-    		i.markDirty(true, tid);
-    	}
+    	installDirtyPages(tid, res);
     }
 
     /**
@@ -217,11 +855,13 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-    	DbFile dbfile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-    	ArrayList<Page> res = dbfile.deleteTuple(tid, t);
-    	for (Page i: res) {
-    		i.markDirty(true, tid);
+    	int tableId = t.getRecordId().getPageId().getTableId();
+    	if (Database.getCatalog().isMapped(tableId)) {
+    		throw new DbException("table " + tableId + " is mapped read-only");
     	}
+    	DbFile dbfile = Database.getCatalog().getDatabaseFile(tableId);
+    	ArrayList<Page> res = dbfile.deleteTuple(tid, t);
+    	installDirtyPages(tid, res);
     }
 
     /**
@@ -229,12 +869,11 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-    	for (Page i: pages) {
-    		if (i == null) continue;
-    		flushPage(i.getId());
+    	for (PageId pid: pageTable.keySet()) {
+    		flushPage(pid);
     	}
     }
 
@@ -246,37 +885,73 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-    	for (int i = 0; i < numPages; i++) {
-    		if (pages[i].getId() == pid) {
-    			pages[i] = null;
-    			return;
+    	ReentrantLock latch = latch(pid);
+    	latch.lock();
+    	try {
+    		cancelPrefetch(pid);
+    		unwritten.remove(pid);
+    		Integer frame = pageTable.remove(pid);
+    		if (frame != null) {
+    			int pins = pinCounts.get(frame);
+    			if (pins > 0) {
+    				Integer dropped = droppedPins.get(pid);
+    				droppedPins.put(pid, dropped == null ? pins : dropped + pins);
+    			}
+    			synchronized (frameLatch) {
+    				pages.set(frame, null);
+    				pinCounts.set(frame, 0);
+    				policy.pageRemoved(frame);
+    				freeFrames.add(frame);
+    			}
     		}
+    	} finally {
+    		latch.unlock();
     	}
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk, if it is dirty or unwritten.  The
+     * changes of a transaction that has not committed are written to the
+     * log first.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
-    	for (Page p: pages) {
-    		if (p != null && p.getId() == pid) {
-    			f.writePage(p);
+    	ReentrantLock latch = latch(pid);
+    	latch.lock();
+    	try {
+    		Page p = lookupPage(pid);
+    		if (p == null) {
+    			unwritten.remove(pid);
+    			return;
+    		}
+    		TransactionId dirtier = p.isDirty();
+    		if (dirtier == null && !unwritten.contains(pid)) {
+    			return;
     		}
+    		if (dirtier != null) {
+    			// write-ahead: the change has to be in the log before it is in the table
+    			LogFile log = Database.getLogFile();
+    			p.setLSN(log.logWrite(dirtier, p.getBeforeImage(), p));
+    			log.force();
+    		}
+    		DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    		f.writePage(p);
+    		Database.getLogFile().pageWritten(pid);
+    		p.markDirty(false, null);
+    		unwritten.remove(pid);
+    	} finally {
+    		latch.unlock();
     	}
-    	f.readPage(pid).markDirty(false, null);
-    	tLock.clearPageLock(pid);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
     	if (transPages.containsKey(tid)) {
@@ -287,31 +962,134 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool and returns its frame, which is
+     * not put back on the free list; a frame freed in the meantime is
+     * taken instead.
+     * The victim is chosen by the replacement policy among the unpinned
+     * pages, preferring pages that are the same as on disk, then unwritten
+     * pages, which are written out first, and only then pages dirtied by a
+     * running transaction, which are logged and written out first.  The
+     * victim is claimed under frameLatch, and written and dropped after
+     * frameLatch is released, under the latch of its stripe.  Pages whose
+     * stripe is latched by another thread are passed over.  The caller must
+     * not hold frameLatch.
      */
-    private synchronized  void evictPage() throws DbException {
+    private  int evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-    	int count = 0;
-    	int n = rand.nextInt(numPages);
+    	final HashSet<Integer> busy = new HashSet<Integer>();
+    	// 0: clean pages only, 1: unwritten pages too, 2: dirty pages too
+    	final int[] stage = { 0 };
+    	IntPredicate evictable = new IntPredicate() {
+    		public boolean test(int frame) {
+    			Page p = pages.get(frame);
+    			if (p == null || pinCounts.get(frame) != 0 || busy.contains(frame)
+    					|| evicting.contains(frame)) {
+    				return false;
+    			}
+    			if (p.isDirty() != null) {
+    				return stage[0] >= 2;
+    			}
+    			return stage[0] >= 1 || !unwritten.contains(p.getId());
+    		}
+    	};
     	while (true) {
-    		if (count > pages.length) {
-    			throw new DbException("All pages are dirty, can't evict!");
+    		int frame;
+    		PageId pid;
+    		synchronized (frameLatch) {
+    			Integer free = freeFrames.poll();
+    			if (free != null) {
+    				return free;
+    			}
+    			frame = policy.chooseVictim(evictable);
+    			if (frame == -1 && stage[0] < 2) {
+    				stage[0]++;
+    				busy.clear();
+    				pid = null;
+    			} else if (frame == -1) {
+    				if (evicting.isEmpty()) {
+    					throw new DbException("All pages are pinned, can't evict!");
+    				}
+    				// the frames other evictions claimed may turn out to be busy
+    				try {
+    					frameLatch.wait();
+    				} catch (InterruptedException e) {
+    					Thread.currentThread().interrupt();
+    					throw new DbException("interrupted while evicting a page");
+    				}
+    				continue;
+    			} else {
+    				evicting.add(frame);
+    				pid = pages.get(frame).getId();
+    			}
     		}
-    		count ++;
-    		n++;
-    		n %= pages.length;
-    		if (pages[n] == null) return; 
-    		if ((pages[n].isDirty() != null)) continue;
+    		if (pid == null) {
+    			if (stage[0] == 1) {
+    				// the cleaner is behind
+    				startCleaner().wakeUp();
+    			}
+    			continue;
+    		}
+    		boolean evicted = false;
     		try {
-				flushPage(pages[n].getId());
-			} catch (Exception e) {
-				continue;
-			}
-    		discardPage(pages[n].getId());
-    		return;
+    			ReentrantLock latch = latch(pid);
+    			if (latch.tryLock()) {
+    				try {
+    					evicted = evictFrame(frame, pid, stage[0] >= 2);
+    				} finally {
+    					latch.unlock();
+    				}
+    			}
+    		} catch (IOException e) {
+    			throw new DbException("could not write page " + pid + ": " + e);
+    		} finally {
+    			synchronized (frameLatch) {
+    				evicting.remove(frame);
+    				frameLatch.notifyAll();
+    				if (evicted) {
+    					policy.pageRemoved(frame);
+    				} else {
+    					busy.add(frame);
+    				}
+    			}
+    		}
+    		if (evicted) {
+    			return frame;
+    		}
+    	}
+    }
+
+    /**
+     * Writes out the page an eviction claimed, if need be, and drops it from
+     * the pool.  The caller must hold the latch of the page's stripe.
+     *
+     * @param dirty true if a page dirtied by a running transaction may be
+     *     written
+     * @return false if the page has been replaced, pinned or dirtied since
+     *     it was chosen, or cannot be written right now
+     */
+    private boolean evictFrame(int frame, PageId pid, boolean dirty) throws IOException {
+    	Page p = pages.get(frame);
+    	if (p == null || !p.getId().equals(pid) || pinCounts.get(frame) != 0
+    			|| (p.isDirty() != null && !dirty)) {
+    		return false;
+    	}
+    	TransactionId dirtier = p.isDirty();
+    	if (dirtier != null) {
+    		// STEAL: the log has to be able to undo the change
+    		LogFile log = Database.getLogFile();
+    		p.setLSN(log.logWrite(dirtier, p.getBeforeImage(), p));
+    		log.force();
+    		Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+    		log.pageWritten(pid);
+    	} else if (unwritten.contains(pid) && !writeUnwritten(pid)) {
+    		return false;
     	}
+    	unwritten.remove(pid);
+    	cancelPrefetch(pid);
+    	pageTable.remove(pid, frame);
+    	pages.set(frame, null);
+    	return true;
     }
 
 }
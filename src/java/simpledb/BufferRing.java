@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * BufferRing is a small, private set of buffer pool frames used by a
+ * sequential scan of a large table.  Pages that the scan has to read from
+ * disk are recorded in the ring; once the ring is full, the page read the
+ * longest ago is dropped from the pool to make room for the next one, so the
+ * scan recycles its own frames instead of flushing the pages other queries
+ * are working with.
+ * <p>
+ * A ring belongs to a single iterator and is not thread safe.
+ *
+ * @see BufferPool#getScanRing(int)
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    private final PageId[] slots;
+    private int next;
+
+    /**
+     * Create an empty ring.
+     *
+     * @param size the number of frames the ring may occupy
+     */
+    public BufferRing(int size) {
+        slots = new PageId[size];
+        next = 0;
+    }
+
+    /** @return the number of frames this ring may occupy */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Record that the specified page was read into the pool through this
+     * ring.
+     *
+     * @param pid the page that was read
+     * @return the page read through the ring the longest ago, which should
+     *     leave the pool to make room, or null if the ring is not full yet
+     */
+    PageId replace(PageId pid) {
+        PageId old = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads the remaining bytes of a ByteBuffer, so pages
+ * can be parsed with a DataInputStream directly from a buffer that is not
+ * backed by an array, such as a slice of a memory-mapped file.
+ * Reading advances the buffer's position.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public int read() {
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        return buf.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    public long skip(long n) {
+        int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + k);
+        return k;
+    }
+
+    public int available() {
+        return buf.remaining();
+    }
+}
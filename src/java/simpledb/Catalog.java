@@ -28,19 +28,25 @@ public class Catalog {
 		TupleDesc tuple;
 		String pkeyField;
 		DbFile file;
-		CatalogTable(int id, String name, TupleDesc tuple, String pkeyField, DbFile file) {
+		boolean mapped;
+		CatalogTable(int id, String name, TupleDesc tuple, String pkeyField, DbFile file, boolean mapped) {
 			this.id = id;
 			this.name = name;
 			this.tuple = tuple;
 			this.pkeyField = pkeyField;
 			this.file = file;
+			this.mapped = mapped;
 		}
 	}
 	
 	private List<CatalogTable> cg;
+	// the ids of the mapped tables, checked by the BufferPool on every
+	// page it does not have
+	private Set<Integer> mappedIds;
     public Catalog() {
         // some code goes here
     	cg = new ArrayList<CatalogTable>();
+    	mappedIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
     }
 
     /**
@@ -54,13 +60,31 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
+    	addTable(file, name, pkeyField, false);
+    }
+
+    /**
+     * Add a new table to the catalog, optionally as a memory-mapped,
+     * read-only table.  The pages of a mapped table are built directly over
+     * a memory mapping of its file when they are read; they are not cached
+     * or locked by the BufferPool, and the table cannot be modified.
+     * @param file the contents of the table to add
+     * @param name the name of the table
+     * @param pkeyField the name of the primary key field
+     * @param mapped true to map the table read-only
+     * @see #isMapped(int)
+     */
+    public void addTable(DbFile file, String name, String pkeyField, boolean mapped) {
     	try {
     		delTable(file.getId());
     		int i = getTableId(name);
     		delTable(i);
     	} catch (NoSuchElementException e) {
     	} finally {
-    		cg.add(new CatalogTable(file.getId(), name, file.getTupleDesc(), pkeyField, file));
+    		cg.add(new CatalogTable(file.getId(), name, file.getTupleDesc(), pkeyField, file, mapped));
+    		if (mapped) {
+    			mappedIds.add(file.getId());
+    		}
     	}
     }
 
@@ -83,6 +107,7 @@ public class Catalog {
     	for (CatalogTable i: cg) {
     		if (i.id == id) {
     			cg.remove(i);
+    			mappedIds.remove(id);
     			return;
     		}
     	}
@@ -144,6 +169,15 @@ public class Catalog {
     	throw new NoSuchElementException();
     }
 
+    /**
+     * Returns true if the specified table was added as a memory-mapped,
+     * read-only table, false if it was not or doesn't exist.
+     * @see #addTable(DbFile, String, String, boolean)
+     */
+    public boolean isMapped(int tableid) {
+    	return mappedIds.contains(tableid);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
     	return new Iterator<Integer>() {
@@ -173,7 +207,18 @@ public class Catalog {
     
     /** Delete all tables from the catalog */
     public void clear() {
+    	for (CatalogTable t : cg) {
+    		if (t.file instanceof HeapFile) {
+    			try {
+    				((HeapFile) t.file).closeFreeSpaceMap();
+    			} catch (IOException e) {
+    				// the map is only a hint
+    				e.printStackTrace();
+    			}
+    		}
+    	}
         cg.clear();
+        mappedIds.clear();
     }
     
     /**
@@ -187,7 +232,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [mapped]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -202,6 +247,14 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("long"))
+                        types.add(Type.LONG_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("double"))
+                        types.add(Type.DOUBLE_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("date"))
+                        types.add(Type.DATE_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -218,8 +271,16 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
+                String annotation = line.substring(line.indexOf(")") + 1).trim();
+                boolean mapped = false;
+                if (annotation.equals("mapped"))
+                    mapped = true;
+                else if (annotation.length() > 0) {
+                    System.out.println("Unknown annotation " + annotation);
+                    System.exit(0);
+                }
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                addTable(tabHf,name,primaryKey,mapped);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
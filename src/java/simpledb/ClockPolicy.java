@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) replacement.  Every frame has a reference bit that is
+ * set whenever its page is used; the clock hand sweeps over the frames,
+ * clearing set bits and evicting the first evictable frame whose bit is
+ * already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final boolean[] referenced;
+    private final boolean[] occupied;
+    private int hand;
+
+    public ClockPolicy(int numFrames) {
+        referenced = new boolean[numFrames];
+        occupied = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        occupied[frame] = true;
+        referenced[frame] = true;
+    }
+
+    public void pageAccessed(int frame) {
+        // a racy write is harmless here, the bit is only a hint
+        referenced[frame] = true;
+    }
+
+    public void pageRemoved(int frame) {
+        occupied[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public int chooseVictim(IntPredicate evictable) {
+        int n = occupied.length;
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n + 1; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            if (!occupied[frame] || !evictable.test(frame)) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            return frame;
+        }
+        return -1;
+    }
+}
@@ -55,11 +55,20 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, ReplacementPolicy.Kind.CLOCK);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
         java.lang.reflect.Field bufferPoolF=null;
+        shutdownBufferPool();
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -73,9 +82,23 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
-    // reset the database, used for unit tests only.
+    // reset the database, used for unit tests only.  Like a crash, this
+    // loses the committed pages the old buffer pool has not written yet;
+    // LogFile.recover() brings them back.  A test that does not recover
+    // starts over with an empty log.
     public static void reset() {
+        getBufferPool().stopCleaner();
         _instance.set(new Database());
+        getLogFile().discardUnrecovered = true;
+    }
+
+    // committed pages the old buffer pool has not written yet would be lost
+    private static void shutdownBufferPool() {
+        try {
+            getBufferPool().shutdown();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 }
@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+
+/**
+ * Instance of Field that stores a date and time, as the number of
+ * milliseconds since 1970-01-01 00:00 UTC.  It compares and serializes like
+ * a LongField holding that number.
+ *
+ * @see Type#DATE_TYPE
+ */
+public class DateField extends LongField {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param millis The value of this field, in milliseconds since
+     *     1970-01-01 00:00 UTC.
+     */
+    public DateField(long millis) {
+        super(millis);
+    }
+
+    /**
+     * Returns the DateField for a date written as yyyy-MM-dd, or a date and
+     * time written as yyyy-MM-dd HH:mm[:ss[.SSS]] with a space or a 'T'
+     * between the two, in UTC.
+     *
+     * @throws java.time.format.DateTimeParseException if s is neither
+     */
+    public static DateField parse(String s) {
+        s = s.trim();
+        if (s.length() <= 10) {
+            return new DateField(LocalDate.parse(s).atStartOfDay()
+                    .toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        return new DateField(LocalDateTime.parse(s.replace(' ', 'T'))
+                .toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    /**
+     * Returns the date as yyyy-MM-dd, followed by the time if it is not
+     * midnight, in the form read by {@link #parse}.
+     */
+    public String toString() {
+        long millis = getValue();
+        LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                (int) Math.floorMod(millis, 1000L) * 1000000, ZoneOffset.UTC);
+        if (t.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            return t.toLocalDate().toString();
+        }
+        return t.toLocalDate() + " " + t.toLocalTime();
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+/** A class to represent a fixed-width histogram over a single field of
+ * LONG_TYPE, DATE_TYPE or DOUBLE_TYPE, whose values it takes as doubles.
+ * Like IntHistogram, it assumes the values of a bucket are spread evenly
+ * over its width.
+ */
+public class DoubleHistogram {
+
+    private final double min, max, width;
+    private final int[] contents;
+    private int ntuples;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this.min = min;
+        this.max = max;
+        double w = (max - min) / buckets;
+        width = w > 0 ? w : 1;
+        contents = new int[buckets];
+    }
+
+    // the bucket of a value between min and max
+    private int bucket(double v) {
+        return Math.min((int) ((v - min) / width), contents.length - 1);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        contents[bucket(v)]++;
+        ntuples++;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (ntuples == 0) {
+            return 0;
+        }
+        if (v > max || v < min) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return 0;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return v > max ? 1 : 0;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return v > max ? 0 : 1;
+            default:
+                return 1;
+            }
+        }
+
+        int idx = bucket(v);
+        double height = contents[idx];
+        double bucketMin = min + width * idx;
+        // the fraction of the tuples equal to v, if the values of the
+        // bucket are whole numbers one apart or more
+        double equal = height / Math.max(width, 1) / ntuples;
+        double below = 0;
+        for (int i = 0; i < idx; i++) {
+            below += contents[i];
+        }
+        below = (below + height * (v - bucketMin) / width) / ntuples;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal;
+        case NOT_EQUALS:
+            return 1 - equal;
+        case LESS_THAN:
+            return below;
+        case LESS_THAN_OR_EQ:
+            return Math.min(1, below + equal);
+        case GREATER_THAN:
+            return Math.max(0, 1 - below - equal);
+        case GREATER_THAN_OR_EQ:
+            return Math.max(0, 1 - below);
+        }
+        return 1;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "DoubleHistogram(" + min + ".." + max + ", " + ntuples + " values in "
+                + contents.length + " buckets)";
+    }
+}
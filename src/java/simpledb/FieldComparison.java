@@ -0,0 +1,193 @@
+package simpledb;
+
+/**
+ * FieldComparison compares a field of one tuple to a field of another, for
+ * one type of field and one operator.  Predicate and JoinPredicate choose
+ * one when they are created or first used, so that checking a tuple reads
+ * the fields through Tuple.getInt and Tuple.getStringBytes and makes no
+ * call to Field.compare and no Field.
+ * <p>
+ * The comparisons of integers hold no state and are shared; those of
+ * strings keep the buffers they read the strings into, so each predicate
+ * has its own.
+ *
+ * @see Field#compare
+ */
+abstract class FieldComparison {
+
+    /**
+     * Returns true if field f1 of t1 compares to field f2 of t2 as the
+     * operator says, with the same meaning as Field.compare.
+     */
+    abstract boolean test(Tuple t1, int f1, Tuple t2, int f2);
+
+    /**
+     * Returns the comparison of fields of the specified type with the
+     * specified operator.
+     */
+    static FieldComparison of(Type type, Predicate.Op op) {
+        if (type == Type.INT_TYPE) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return INT_EQUALS;
+            case NOT_EQUALS:
+                return INT_NOT_EQUALS;
+            case GREATER_THAN:
+                return INT_GREATER_THAN;
+            case GREATER_THAN_OR_EQ:
+                return INT_GREATER_THAN_OR_EQ;
+            case LESS_THAN:
+                return INT_LESS_THAN;
+            case LESS_THAN_OR_EQ:
+                return INT_LESS_THAN_OR_EQ;
+            }
+        } else if (type == Type.STRING_TYPE || type == Type.VARCHAR_TYPE) {
+            switch (op) {
+            case EQUALS:
+                return new StringEquals();
+            case NOT_EQUALS:
+                return new StringNotEquals();
+            case GREATER_THAN:
+                return new StringGreaterThan();
+            case GREATER_THAN_OR_EQ:
+                return new StringGreaterThanOrEq();
+            case LESS_THAN:
+                return new StringLessThan();
+            case LESS_THAN_OR_EQ:
+                return new StringLessThanOrEq();
+            case LIKE:
+                return new StringLike();
+            }
+        } else if (type == Type.LONG_TYPE || type == Type.DOUBLE_TYPE
+                || type == Type.DATE_TYPE) {
+            return new FieldCompare(op);
+        }
+        throw new IllegalArgumentException("no comparison of " + type + " with " + op);
+    }
+
+    private static final FieldComparison INT_EQUALS = new FieldComparison() {
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getInt(f1) == t2.getInt(f2);
+        }
+    };
+
+    private static final FieldComparison INT_NOT_EQUALS = new FieldComparison() {
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getInt(f1) != t2.getInt(f2);
+        }
+    };
+
+    private static final FieldComparison INT_GREATER_THAN = new FieldComparison() {
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getInt(f1) > t2.getInt(f2);
+        }
+    };
+
+    private static final FieldComparison INT_GREATER_THAN_OR_EQ = new FieldComparison() {
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getInt(f1) >= t2.getInt(f2);
+        }
+    };
+
+    private static final FieldComparison INT_LESS_THAN = new FieldComparison() {
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getInt(f1) < t2.getInt(f2);
+        }
+    };
+
+    private static final FieldComparison INT_LESS_THAN_OR_EQ = new FieldComparison() {
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getInt(f1) <= t2.getInt(f2);
+        }
+    };
+
+    /** A comparison through Field.compare, for the types read as Fields */
+    private static final class FieldCompare extends FieldComparison {
+        private final Predicate.Op op;
+
+        FieldCompare(Predicate.Op op) {
+            this.op = op;
+        }
+
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return t1.getField(f1).compare(op, t2.getField(f2));
+        }
+    }
+
+    /** A comparison of two strings, read into buffers of this comparison */
+    private static abstract class StringComparison extends FieldComparison {
+        private final byte[] a = new byte[Type.STRING_LEN];
+        private final byte[] b = new byte[Type.STRING_LEN];
+
+        boolean test(Tuple t1, int f1, Tuple t2, int f2) {
+            return test(a, t1.getStringBytes(f1, a), b, t2.getStringBytes(f2, b));
+        }
+
+        /** Returns true if the first len1 bytes of s1 and len2 of s2 compare */
+        abstract boolean test(byte[] s1, int len1, byte[] s2, int len2);
+
+        // as String.compareTo, for strings of one-byte characters
+        static int compare(byte[] s1, int len1, byte[] s2, int len2) {
+            int n = Math.min(len1, len2);
+            for (int i = 0; i < n; i++) {
+                if (s1[i] != s2[i]) {
+                    return (s1[i] & 0xff) - (s2[i] & 0xff);
+                }
+            }
+            return len1 - len2;
+        }
+    }
+
+    private static final class StringEquals extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            return len1 == len2 && compare(s1, len1, s2, len2) == 0;
+        }
+    }
+
+    private static final class StringNotEquals extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            return len1 != len2 || compare(s1, len1, s2, len2) != 0;
+        }
+    }
+
+    private static final class StringGreaterThan extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            return compare(s1, len1, s2, len2) > 0;
+        }
+    }
+
+    private static final class StringGreaterThanOrEq extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            return compare(s1, len1, s2, len2) >= 0;
+        }
+    }
+
+    private static final class StringLessThan extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            return compare(s1, len1, s2, len2) < 0;
+        }
+    }
+
+    private static final class StringLessThanOrEq extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            return compare(s1, len1, s2, len2) <= 0;
+        }
+    }
+
+    /** True if the second string occurs in the first, as StringField's LIKE */
+    private static final class StringLike extends StringComparison {
+        boolean test(byte[] s1, int len1, byte[] s2, int len2) {
+            for (int i = 0; i + len2 <= len1; i++) {
+                int j = 0;
+                while (j < len2 && s1[i + j] == s2[j]) {
+                    j++;
+                }
+                if (j == len2) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
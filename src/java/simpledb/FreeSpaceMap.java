@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records approximately how many free tuple slots each page of
+ * a HeapFile has, so that inserts can go straight to a page with room
+ * instead of trying every page of the table in turn.
+ * <p>
+ * The map keeps one byte per page: the number of free slots, capped at
+ * {@link #MAX_FREE}, {@link #UNKNOWN} for a page the map has no
+ * information about, or {@link #PREALLOCATED} for a page at the end of the
+ * file that HeapFile has preallocated but not handed out yet.  It is
+ * stored in a sidecar file next to the table (the table's file name
+ * followed by {@link #SUFFIX}).  The entry of a page is written to the
+ * sidecar when the page itself is written to disk, so the sidecar describes
+ * the pages on disk; inserts, deletes and reads only update the copy in
+ * memory.
+ * <p>
+ * The sidecar starts with a header holding {@link #MAGIC} and the length of
+ * the table when the sidecar was last written; the entries follow.  The map
+ * is only a hint: HeapFile checks that a page really has room before
+ * inserting into it and corrects the entry if it does not.  A sidecar whose
+ * header does not match its table, because the table was rewritten by other
+ * means or a crash left the two out of step, is ignored.  A table rewritten
+ * to exactly its old length is not detected; whatever rewrites a table
+ * should delete its sidecar, as {@link HeapFileEncoder} does.
+ *
+ * @see HeapFile#insertTuple(TransactionId, Tuple)
+ */
+public class FreeSpaceMap {
+
+    /** Appended to the name of the table file to get the name of the sidecar. */
+    public static final String SUFFIX = ".fsm";
+
+    /** Marks the start of a sidecar. */
+    static final int MAGIC = 0x46534d31; // "FSM1"
+    /** Size of the header before the entries in the sidecar. */
+    static final int HEADER_SIZE = 12;
+
+    /** Entry of a page whose free space is not known. */
+    static final int UNKNOWN = 0xff;
+    /** Entry of a page that was preallocated and is not in use yet. */
+    static final int PREALLOCATED = 0xfe;
+    /** Largest number of free slots an entry can record. */
+    static final int MAX_FREE = PREALLOCATED - 1;
+
+    private final File table;
+    private final File file;
+    private FileChannel channel;
+    private byte[] entries;
+    // number of entries in the sidecar
+    private int persisted;
+    // table length in the header of the sidecar, -1 if it has no header
+    private long tableLength;
+    // no page before this one has room
+    private int firstFree;
+
+    /**
+     * Load the free-space map of a table from its sidecar, if there is one.
+     *
+     * @param table the file storing the table
+     */
+    public FreeSpaceMap(File table) throws IOException {
+        this.table = table;
+        file = new File(table.getPath() + SUFFIX);
+        entries = new byte[0];
+        persisted = 0;
+        tableLength = -1;
+        firstFree = 0;
+        if (file.exists()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long length = table.length();
+            if (Utility.readFully(getChannel(), header, 0) == HEADER_SIZE
+                    && header.getInt(0) == MAGIC && header.getLong(4) == length) {
+                entries = new byte[(int) (getChannel().size() - HEADER_SIZE)];
+                persisted = Utility.readFully(getChannel(), ByteBuffer.wrap(entries), HEADER_SIZE);
+                tableLength = length;
+            } else {
+                getChannel().truncate(0);
+            }
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the first page at or after the given one that may have room
+     * for a tuple: either the map records free slots for it, or it does not
+     * know.
+     *
+     * @param from the page to start searching at
+     * @param numPages the number of pages in the table
+     * @return the page number, or -1 if no page from there on has room
+     */
+    public synchronized int findPage(int from, int numPages) {
+        for (int pgNo = Math.max(from, firstFree); pgNo < numPages; pgNo++) {
+            if (pgNo >= entries.length || entries[pgNo] != 0) {
+                return pgNo;
+            }
+            if (pgNo == firstFree) {
+                firstFree++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records the number of free slots of a page in memory.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        grow(pgNo + 1);
+        entries[pgNo] = (byte) Math.min(freeSlots, MAX_FREE);
+        if (freeSlots > 0 && pgNo < firstFree) {
+            firstFree = pgNo;
+        }
+    }
+
+    /**
+     * Records the number of free slots of a page that is being written to
+     * disk, and writes the entry to the sidecar.  If the sidecar ends before
+     * the page, the entries in between are written as well.
+     */
+    public synchronized void write(int pgNo, int freeSlots) throws IOException {
+        update(pgNo, freeSlots);
+        persist(pgNo, pgNo + 1);
+    }
+
+    /**
+     * Records that pages from (inclusive) to to (exclusive) were appended to
+     * the file ahead of time, and writes their entries to the sidecar.
+     */
+    public synchronized void preallocate(int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        grow(to);
+        Arrays.fill(entries, from, to, (byte) PREALLOCATED);
+        persist(from, to);
+    }
+
+    /**
+     * Returns the number of pages in use in a file of the given number of
+     * pages: the pages before the preallocated pages at its end.
+     */
+    public synchronized int usedPages(int numPages) {
+        int n = Math.min(numPages, entries.length);
+        if (n < numPages) {
+            // the map knows nothing about the last page
+            return numPages;
+        }
+        while (n > 0 && (entries[n - 1] & 0xff) == PREALLOCATED) {
+            n--;
+        }
+        return n;
+    }
+
+    /**
+     * Forces the sidecar to disk and closes it.  The sidecar is opened
+     * again if an entry is written afterwards.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void grow(int numPages) {
+        if (numPages > entries.length) {
+            int old = entries.length;
+            entries = Arrays.copyOf(entries, Math.max(numPages, old * 2));
+            Arrays.fill(entries, old, entries.length, (byte) UNKNOWN);
+        }
+    }
+
+    private void persist(int from, int to) throws IOException {
+        from = Math.min(from, persisted);
+        long length = table.length();
+        if (length != tableLength) {
+            // the header goes first: entries under a stale header are ignored
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC).putLong(4, length);
+            Utility.writeFully(getChannel(), header, 0);
+            tableLength = length;
+        }
+        Utility.writeFully(getChannel(), ByteBuffer.wrap(entries, from, to - from), HEADER_SIZE + from);
+        persisted = Math.max(persisted, to);
+    }
+}
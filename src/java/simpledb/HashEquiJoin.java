@@ -117,16 +117,8 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // the combined tuple is a view over the two
+        return Tuple.join(comboTD, t1, t2);
 
     }
 
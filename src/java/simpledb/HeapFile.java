@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -9,16 +11,34 @@ import java.util.concurrent.locks.ReentrantLock;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor.  Files written before pages had an LSN cannot be read; they
+ * have to be converted again from their text files.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+	/** Default smallest number of bytes the file grows by when it runs out of pages. */
+	public static final int DEFAULT_EXTENT_BYTES = 1 << 20;
+	/** Default growth of the file when it runs out of pages, as a fraction of its size. */
+	public static final double DEFAULT_EXTENT_GROWTH = 0.0;
+
 	private File f;
 	private TupleDesc td;
 	private ReentrantLock lock;
+	// opened on first use and kept open for the lifetime of the HeapFile
+	private FileChannel channel;
+	// mapping of the file, created on the first read if the table is mapped
+	private MappedFile mapping;
+	// loaded on first use
+	private FreeSpaceMap fsm;
+	private int extentBytes = DEFAULT_EXTENT_BYTES;
+	private double extentGrowth = DEFAULT_EXTENT_GROWTH;
+	// pages in use; the file may hold preallocated pages after them
+	private int usedPages = -1;
+	// the length of the file when usedPages was last computed or changed
+	private long knownLength = -1;
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -69,52 +89,171 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the channel all reads and writes of this file go through,
+     * opening it on first use.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+    	if (channel == null) {
+    		channel = new RandomAccessFile(f, "rw").getChannel();
+    	}
+    	return channel;
+    }
+
+    /**
+     * Returns the read-only mapping of this file, mapping it on first use.
+     */
+    private synchronized MappedFile getMapping() throws IOException {
+    	if (mapping == null) {
+    		mapping = new MappedFile(getChannel());
+    	}
+    	return mapping;
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it on first use.
+     */
+    synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+    	if (fsm == null) {
+    		fsm = new FreeSpaceMap(f);
+    	}
+    	return fsm;
+    }
+
+    /**
+     * Forces the free-space map of this file to disk and closes its
+     * sidecar; see {@link FreeSpaceMap#close()}.
+     */
+    public synchronized void closeFreeSpaceMap() throws IOException {
+    	if (fsm != null) {
+    		fsm.close();
+    	}
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
     	int pageSize = BufferPool.getPageSize();
+    	if (Database.getCatalog().isMapped(getId())) {
+    		// build the page over the mapped bytes without copying them
+    		try {
+    			ByteBuffer slice = getMapping().slice((long) pageSize * pid.getPageNumber(), pageSize);
+    			if (slice != null) {
+    				return new HeapPage((HeapPageId)pid, slice);
+    			}
+    		} catch (IOException e) {
+    			throw new RuntimeException("failed to map page " + pid.getPageNumber(), e);
+    		}
+    	}
     	byte[] data = new byte[pageSize];
     	try {
-    		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-    		rf.seek(pageSize * pid.getPageNumber());
-    		for (int i = 0; i < pageSize; i++) {
-    			data[i] = rf.readByte();
-    		}
-    		rf.close();
-    	} catch(Exception e) {
+    		// a page past the end of the file reads as an empty page
+    		Utility.readFully(getChannel(), ByteBuffer.wrap(data),
+    				(long) pageSize * pid.getPageNumber());
+    	} catch (IOException e) {
+    		throw new RuntimeException("failed to read page " + pid.getPageNumber(), e);
     	}
+        HeapPage res;
         try {
-        	HeapPage res =  new HeapPage((HeapPageId)pid, data);
-        	return res;
+        	res =  new HeapPage((HeapPageId)pid, data);
         } catch(IOException e) {
         	return null;
         }
+        try {
+        	// every page read from disk refreshes its entry in the free-space map
+        	getFreeSpaceMap().update(pid.getPageNumber(), res.getNumEmptySlots());
+        } catch (IOException e) {
+        	throw new RuntimeException("failed to update the free-space map of page " + pid.getPageNumber(), e);
+        }
+        return res;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	byte[] data = page.getPageData();
     	int pageSize = BufferPool.getPageSize();
-    	try {
-    		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-    		rf.seek(pageSize * page.getId().getPageNumber());
-    		rf.write(data);
-    		rf.close();
-    	} catch(Exception e) {
+    	int pgNo = page.getId().getPageNumber();
+    	Utility.writeFully(getChannel(), ByteBuffer.wrap(page.getPageData()),
+    			(long) pageSize * pgNo);
+    	synchronized (this) {
+    		usedPages = Math.max(numPages(), pgNo + 1);
+    		knownLength = f.length();
     	}
+    	getFreeSpaceMap().write(pgNo, ((HeapPage) page).getNumEmptySlots());
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile.  Pages preallocated at
+     * the end of the file that have not been handed out to inserts yet are
+     * not counted.
      */
-    public int numPages() {
+    public synchronized int numPages() {
         // some code goes here
-        return (int)Math.ceil(f.length() / BufferPool.getPageSize());
+        long len = f.length();
+        if (len != knownLength) {
+        	int pages = (int) (len / BufferPool.getPageSize());
+        	if (knownLength == -1) {
+        		// the free-space map knows which pages at the end were preallocated
+        		try {
+        			pages = getFreeSpaceMap().usedPages(pages);
+        		} catch (IOException e) {
+        			// count them all; preallocated pages are empty
+        		}
+        	}
+        	// else the file was changed by someone else and all its pages count
+        	usedPages = pages;
+        	knownLength = len;
+        }
+        return usedPages;
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Sets how much the file grows by when an insert finds no page with
+     * room: the larger of a number of bytes and a fraction of the current
+     * size of the file, rounded down to whole pages but at least one page.
+     * The new pages are written to the file at once and handed out to
+     * inserts one at a time.
+     *
+     * @param minBytes the smallest number of bytes to grow the file by
+     * @param growth the growth as a fraction of the file's size, e.g. 0.1
+     */
+    public synchronized void setExtent(int minBytes, double growth) {
+    	extentBytes = minBytes;
+    	extentGrowth = growth;
+    }
+
+    /**
+     * Hands out the page after the pages in use, growing the file by an
+     * extent first if there are no preallocated pages left.
+     *
+     * @return the page number of the new page
+     */
+    private synchronized int allocatePage() throws IOException {
+    	int pageSize = BufferPool.getPageSize();
+    	int pgNo = numPages();
+    	int filePages = (int) (knownLength / pageSize);
+    	if (pgNo >= filePages) {
+    		long bytes = Math.max(extentBytes, (long) (knownLength * extentGrowth));
+    		int extent = (int) Math.max(1, bytes / pageSize);
+    		Utility.writeFully(getChannel(), ByteBuffer.allocate(extent * pageSize),
+    				(long) pageSize * filePages);
+    		knownLength = f.length();
+    		getFreeSpaceMap().preallocate(filePages, filePages + extent);
+    	}
+    	usedPages = pgNo + 1;
+    	return pgNo;
+    }
+
+    /**
+     * Inserts the tuple into a page the free-space map says has room,
+     * skipping pages another transaction is writing to so that concurrent
+     * inserters spread over different pages.  If there is none, the tuple
+     * goes to a new page taken from the extent at the end of the file.
+     *
+     * @see FreeSpaceMap
+     * @see #setExtent(int, double)
+     */
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
@@ -122,35 +261,55 @@ public class HeapFile implements DbFile {
         	throw new DbException("Tuple can not be added!");
         }
         ArrayList<Page> res = new ArrayList<Page>();
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int n = numPages();
         HeapPage p = null;
-    	for (int i = 0; i < numPages(); i++) {
-    		try {
-				p = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), 
-						Permissions.READ_WRITE);
-				p.insertTuple(t);
-				res.add(p);
-				return res;
-    		} catch (Exception e) { 
-//    			if (p != null) {
-//    				Database.getBufferPool().tLock.xUnLock(tid, p.getId());
-//    			}
+    	for (int i = fsm.findPage(0, n); i != -1; i = fsm.findPage(i + 1, n)) {
+    		HeapPageId pid = new HeapPageId(getId(), i);
+    		if (bp.isWriteLocked(tid, pid)) {
+    			continue;
+    		}
+    		p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    		if (p.getNumEmptySlots() > 0) {
+    			insertLatched(bp, p, t);
+    			fsm.update(i, p.getNumEmptySlots());
+    			res.add(p);
+    			return res;
     		}
+    		// the map was out of date
+    		fsm.update(i, 0);
     	}
+    	int pgNo;
+    	lock.lock();
     	try {
-    		lock.lock();
-    		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-    		rf.setLength(rf.length() + BufferPool.getPageSize());
-    		p = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), numPages()-1), 
+    		pgNo = allocatePage();
+    		p = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), pgNo), 
 					Permissions.READ_WRITE);
+    		fsm.write(pgNo, p.getNumEmptySlots());
+    	} finally {
     		lock.unlock();
-    		p.insertTuple(t);
-    		res.add(p);
-    		rf.close();
-    	} catch (Exception e) {
     	}
+    	insertLatched(bp, p, t);
+    	fsm.update(pgNo, p.getNumEmptySlots());
+    	res.add(p);
     	return res;
     }
 
+    /**
+     * Inserts a tuple into a page under the latch of the page's stripe, so
+     * that an eviction writing the page out never sees it half changed.
+     */
+    private static void insertLatched(BufferPool bp, HeapPage p, Tuple t) throws DbException {
+    	ReentrantLock latch = bp.latch(p.getId());
+    	latch.lock();
+    	try {
+    		p.insertTuple(t);
+    	} finally {
+    		latch.unlock();
+    	}
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -158,14 +317,22 @@ public class HeapFile implements DbFile {
     	HeapPage p = null;
     	ArrayList<Page> res = new ArrayList<Page>();
 		try {
-			p = (HeapPage)Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), 
-					Permissions.READ_WRITE);
-			p.deleteTuple(t);
+			BufferPool bp = Database.getBufferPool();
+			p = (HeapPage) bp.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+			// see insertLatched()
+			ReentrantLock latch = bp.latch(p.getId());
+			latch.lock();
+			try {
+				p.deleteTuple(t);
+			} finally {
+				latch.unlock();
+			}
+			getFreeSpaceMap().update(p.getId().getPageNumber(), p.getNumEmptySlots());
 			res.add(p);
 			return res;
 		} catch (Exception e) {
 			if (p != null) {
-				Database.getBufferPool().tLock.xUnLock(tid, p.getId());
+				Database.getBufferPool().releasePage(tid, p.getId());
 			}
 		}
     	if (res.isEmpty()) {
@@ -178,14 +345,44 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+    	return iterator(tid, new ReadAhead(ReadAhead.DEFAULT_DEPTH));
+    }
+
+    /**
+     * Returns an iterator over all the tuples in this file that reads the
+     * following pages in the background while the current one is processed.
+     *
+     * @param tid the transaction scanning the file
+     * @param readAhead keeps the pages in flight and collects the scan's I/O statistics
+     */
+    public DbFileIterator iterator(final TransactionId tid, final ReadAhead readAhead) {
     	return new DbFileIterator() {
     		private int i;
     		private Iterator<Tuple> current;
+    		// the page current iterates over, pinned until the scan moves on
+    		private PageId pinned;
+    		// the pool pinned holds its pin in
+    		private BufferPool pool;
+    		// large tables are read through a private ring of frames
+    		private BufferRing ring;
     		public void open()
     		        throws DbException, TransactionAbortedException {
     			i = 0;
-    			current = ((HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), 
-    					Permissions.READ_ONLY)).iterator();
+    			ring = Database.getBufferPool().getScanRing(numPages());
+    			readAhead.start();
+    			readPage();
+    		}
+
+    		private void readPage() throws DbException, TransactionAbortedException {
+    			unpin();
+    			HeapPageId pid = new HeapPageId(getId(), i);
+    			pool = Database.getBufferPool();
+    			current = ((HeapPage)readAhead.fetch(tid, pid, ring)).iterator();
+    			pinned = pid;
+    			int last = Math.min(i + readAhead.getDepth(), numPages() - 1);
+    			for (int j = i + 1; j <= last; j++) {
+    				readAhead.prefetch(new HeapPageId(getId(), j));
+    			}
     		}
     		
 	    	public boolean hasNext() 
@@ -201,8 +398,7 @@ public class HeapFile implements DbFile {
 	    			if (i >= numPages()) {
 	    				return false;
 	    			}
-	    			current = ((HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), 
-	    					Permissions.READ_ONLY)).iterator();
+	    			readPage();
 	    		}
 	    	}
 	    	public Tuple next()
@@ -215,10 +411,19 @@ public class HeapFile implements DbFile {
 	    		open();
 	    	}
 	    	public void close() {
+	    		unpin();
 	    		current = null;
+	    		ring = null;
+	    		readAhead.finish();
+	    	}
+
+	    	private void unpin() {
+	    		if (pinned != null) {
+	    			pool.unpinPage(pinned);
+	    			pinned = null;
+	    		}
 	    	}
     	};
     }
 
 }
-
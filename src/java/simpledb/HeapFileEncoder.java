@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -68,12 +70,12 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
+    * Assume format of the input file is:<br>
     * int,...,int\n<br>
     * int,...,int\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field holds a value of its
+    * type in the form read by {@link Type#parse(String)}.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
@@ -91,11 +93,17 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      if (!new TupleDesc(typeAr).isFixedSize()) {
+          convertRecords(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+      // the page LSN comes first; the pages written here have no logged changes
+      int nrecords = ((npagebytes - Page.LSN_SIZE) * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
     //  per record, we need one bit; there are nrecords per page, so we need
     // nrecords bits, i.e., ((nrecords/32)+1) integers.
@@ -106,6 +114,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // the free-space map of a table that was at outFile is stale
+    new File(outFile.getPath() + FreeSpaceMap.SUFFIX).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -157,6 +167,9 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                parseField(typeAr[fieldNo], s).serialize(pageStream);
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -186,6 +199,7 @@ public class HeapFileEncoder {
             int i = 0;
             byte headerbyte = 0;
             
+            headerStream.writeLong(Page.encodeLSN(0)); // page LSN: no logged changes
             for (i=0; i<nheaderbits; i++) {
                 if (i < recordcount)
                     headerbyte |= (1 << (i % 8));
@@ -201,7 +215,7 @@ public class HeapFileEncoder {
             
             // pad the rest of the page with zeroes
             
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
+            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes + Page.LSN_SIZE)); i++)
                 pageStream.writeByte(0);
             
             // write header and body to file
@@ -223,4 +237,91 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert the specified input text file into a binary page file for a
+   * table whose tuples are not of fixed size, which its pages store behind
+   * a record directory (see {@link RecordDirectory}).  Each page holds as
+   * many tuples as fit.
+   *
+   * @see #convert(File, File, int, int, Type[], char)
+   */
+  private static void convertRecords(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int nslots = RecordDirectory.numSlots(td, npagebytes - Page.LSN_SIZE);
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      ArrayList<byte[]> records = new ArrayList<byte[]>();
+      int used = RecordDirectory.usedBytes(0, 0);
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.isEmpty())
+              continue;
+          String[] fields = line.split(separator, -1);
+          ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream(td.getSize());
+          DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+          for (int fieldNo = 0; fieldNo < numFields; fieldNo++) {
+              String s = fieldNo < fields.length ? fields[fieldNo].trim() : "";
+              if (typeAr[fieldNo] == Type.INT_TYPE) {
+                  int v = 0;
+                  try {
+                      v = Integer.parseInt(s);
+                  } catch (NumberFormatException e) {
+                      System.out.println ("BAD LINE : " + s);
+                  }
+                  recordStream.writeInt(v);
+              } else if (typeAr[fieldNo] == Type.STRING_TYPE
+                         || typeAr[fieldNo] == Type.VARCHAR_TYPE) {
+                  typeAr[fieldNo].serializeCompact(new StringField(s, Type.STRING_LEN), recordStream);
+              } else {
+                  typeAr[fieldNo].serializeCompact(parseField(typeAr[fieldNo], s), recordStream);
+              }
+          }
+          recordStream.flush();
+          byte[] record = recordBAOS.toByteArray();
+
+          // start a new page if the record does not fit this one
+          if (records.size() == nslots
+              || used + RecordDirectory.ENTRY_SIZE + record.length > npagebytes - Page.LSN_SIZE) {
+              writeRecordPage(os, npagebytes, records);
+              npages++;
+              records.clear();
+              used = RecordDirectory.usedBytes(0, 0);
+          }
+          records.add(record);
+          used += RecordDirectory.ENTRY_SIZE + record.length;
+      }
+      // as in convert, an empty file still gets an empty page
+      if (records.size() > 0 || npages == 0)
+          writeRecordPage(os, npagebytes, records);
+      br.close();
+      os.close();
+  }
+
+  // the field of a numeric or date type written in s, or the field of that
+  // type whose bytes are all zero if s does not hold one
+  private static Field parseField(Type type, String s) {
+      try {
+          return type.parse(s);
+      } catch (IllegalArgumentException e) {
+          System.out.println ("BAD LINE : " + s);
+          return type.parse(ByteBuffer.allocate(type.getLen()), 0);
+      }
+  }
+
+  // write a page with the specified records in its first slots and a page
+  // LSN of 0
+  private static void writeRecordPage(OutputStream os, int npagebytes, ArrayList<byte[]> records)
+      throws IOException {
+      byte[] page = new byte[npagebytes];
+      ByteBuffer.wrap(page).putLong(0, Page.encodeLSN(0));
+      RecordDirectory.write(page, Page.LSN_SIZE, records.toArray(new byte[records.size()][]));
+      os.write(page);
+  }
 }
@@ -2,66 +2,123 @@ package simpledb;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and only parses its header up
+ * front.  The tuple in a slot is built the first time the slot is read,
+ * and its fields are decoded from the page bytes the first time they are
+ * read (see {@link Tuple#getField}), so a scan that looks at one column
+ * of a page decodes only that column.
+ * <p>
+ * The tuples of a table with a VARCHAR field vary in size, and its pages
+ * store each one in a record of its own length behind a record directory
+ * (see {@link RecordDirectory}) instead of in slots of the largest size.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlottedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    // the tuple of each slot, once it has been read or inserted
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
+    // the bytes the page was read from; never modified
+    private final ByteBuffer data;
+    // for a table whose tuples are not of fixed size: the index in data of
+    // the record of each slot, and its length, or 0 for an empty slot
+    private final int[] recordOffsets;
+    private final int[] recordLengths;
 
     byte[] oldData;
+    // set instead of oldData when the page is a view of a read-only mapping
+    private ByteBuffer mappedData;
     private final Byte oldDataLock=new Byte((byte)0);
     private TransactionId dirty;
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
-     * The format of a HeapPage is a set of header bytes indicating
+     * The format of a HeapPage is the page LSN (see {@link Page#getLSN}),
+     * a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor(((BufferPool.getPageSize() - Page.LSN_SIZE)*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * If the tuples of the table are not of fixed size, the page LSN is
+     * followed by a record directory instead (see {@link RecordDirectory}).
+     * <p>
+     * Pages written before pages had an LSN start with their header bytes
+     * instead; they lack the format mark of {@link Page#encodeLSN} and are
+     * refused with an IOException, so their tables have to be converted
+     * again with HeapFileEncoder.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit
+     * of a buffer; the buffer's position is not changed.  If the buffer is
+     * read-only, as the pages of a memory-mapped table are, the page keeps
+     * a reference to it as its before image instead of copying its bytes.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     * @see MappedFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.slice();
 
-        // allocate and read the header slots of this page
+        lsn = Page.decodeLSN(id, this.data.getLong(0), this.data);
+
+        // allocate and read the header slots of this page; the tuples are
+        // read when they are used
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        if (td.isFixedSize()) {
+            for (int i=0; i<header.length; i++)
+                header[i] = this.data.get(LSN_SIZE + i);
+            recordOffsets = null;
+            recordLengths = null;
+        } else {
+            recordOffsets = new int[numSlots];
+            recordLengths = new int[numSlots];
+            RecordDirectory.read(this.data, LSN_SIZE, BufferPool.getPageSize(),
+                    recordOffsets, recordLengths);
+            for (int i=0; i<numSlots; i++)
+                markSlotUsed(i, recordLengths[i] > 0);
+        }
         
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
+
+        if (data.isReadOnly()) {
+            mappedData = data;
+        } else if (this.data.hasArray() && this.data.arrayOffset() == 0
+                && this.data.array().length == BufferPool.getPageSize()) {
+            // nothing writes to the bytes, so they are the before image
+            oldData = this.data.array();
+        } else {
+            setBeforeImage();
         }
-        dis.close();
-
-        setBeforeImage();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -69,7 +126,10 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (int)Math.floor((BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1));
+        if (!td.isFixedSize()) {
+            return RecordDirectory.numSlots(td, BufferPool.getPageSize() - LSN_SIZE);
+        }
+        return (int)Math.floor(((BufferPool.getPageSize() - LSN_SIZE)*8) / (td.getSize() * 8 + 1));
     }
 
     /**
@@ -87,10 +147,14 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
+            ByteBuffer mappedDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                mappedDataRef = mappedData;
             }
+            if (mappedDataRef != null)
+                return new HeapPage(pid,mappedDataRef);
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -104,6 +168,7 @@ public class HeapPage implements Page {
         synchronized(oldDataLock)
         {
         oldData = getPageData().clone();
+        mappedData = null;
         }
     }
 
@@ -116,36 +181,34 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, building it over the page bytes if it
+     * has not been read yet, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        Tuple t = tuples.get(slotId);
+        if (t == null) {
+            int offset = recordOffsets != null ? recordOffsets[slotId]
+                    : getSlotsOffset() + slotId * td.getSize();
+            if (data.isReadOnly()) {
+                // a mapped table's bytes live in a mapping that may be
+                // unmapped, or over a file that may be truncated, once the
+                // page is dropped, so its tuples must not keep fields left
+                // to decode from them
+                t = new Tuple(td);
+                for (int j=0; j<td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(data, offset + td.getOffset(j, data, offset)));
+                }
+            } else {
+                t = new Tuple(td, data, offset);
+            }
+            t.setRecordId(new RecordId(pid, slotId));
+            if (!tuples.compareAndSet(slotId, null, t)) {
+                t = tuples.get(slotId);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
         return t;
     }
 
@@ -161,10 +224,20 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (recordLengths != null) {
+            return getRecordPageData();
+        }
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
+        try {
+            dos.writeLong(Page.encodeLSN(lsn));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+
         // create the header of the page
         for (int i=0; i<header.length; i++) {
             try {
@@ -176,7 +249,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -191,9 +264,23 @@ public class HeapPage implements Page {
                 continue;
             }
 
-            // non-empty slot
+            // non-empty slot; a tuple that was never read is still in the
+            // page bytes
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                ByteBuffer slot = data.duplicate();
+                slot.position(getSlotsOffset() + i * td.getSize());
+                byte[] b = new byte[td.getSize()];
+                slot.get(b);
+                try {
+                    dos.write(b);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);
                 
@@ -204,7 +291,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (LSN_SIZE + header.length + td.getSize() * numSlots); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -221,6 +308,30 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    // getPageData for a table whose tuples are not of fixed size
+    private byte[] getRecordPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer.wrap(page).putLong(0, Page.encodeLSN(lsn));
+        byte[][] records = new byte[numSlots][];
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                // never read, so still in the page bytes
+                records[i] = new byte[recordLengths[i]];
+                ByteBuffer rec = data.duplicate();
+                rec.position(recordOffsets[i]);
+                rec.get(records[i]);
+            } else {
+                records[i] = RecordDirectory.toRecord(t);
+            }
+        }
+        RecordDirectory.write(page, LSN_SIZE, records);
+        return page;
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty
      * HeapPage.
@@ -249,6 +360,10 @@ public class HeapPage implements Page {
 		if (!isSlotUsed(i)) throw new DbException("Delete a nonexist tuple!");
 		if (t.getRecordId().getPageId() != pid) throw new DbException("Delete a nonexist tuple!");
 		markSlotUsed(i, false);
+		tuples.set(i, null);
+		if (recordLengths != null) {
+			recordLengths[i] = 0;
+		}
 		return;
     }
 
@@ -262,16 +377,22 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-    	if (getNumEmptySlots() == 0) throw new DbException("No Vacancy!");
     	if (!t.getTupleDesc().equals(td)) throw new DbException("TupleDesc mismatch!");
-    	for (int i = 0; i < getNumTuples(); i++) {
+    	int len = recordLengths != null ? td.getCompactSize(t) : 0;
+    	if (recordLengths != null ? getFreeBytes() < RecordDirectory.ENTRY_SIZE + len
+    			: getNumEmptySlots() == 0) throw new DbException("No Vacancy!");
+    	for (int i = 0; i < numSlots; i++) {
     		if (!isSlotUsed(i)) {
-    			tuples[i] = t;
+    			if (recordLengths != null) {
+    				recordLengths[i] = len;
+    			}
+    			tuples.set(i, t);
     			t.setRecordId(new RecordId(pid, i));
     			markSlotUsed(i, true);
     			return;
     		}
     	}
+    	throw new DbException("No Vacancy!");
     }
 
     /**
@@ -305,26 +426,70 @@ public class HeapPage implements Page {
         return dirty;      
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page.  If the tuples of
+     * the table are not of fixed size, this is the number of tuples of
+     * the largest size that still fit, so that a page with empty slots
+     * always has room for another tuple.
      */
     public int getNumEmptySlots() {
         // some code goes here
     	int res = 0;
-    	for (int i = 0; i < getNumTuples(); i++) {
+    	for (int i = 0; i < numSlots; i++) {
     		if (!isSlotUsed(i)) {
     			res ++;
     		}
     	}
+    	if (recordLengths != null) {
+    		res = Math.min(res, getFreeBytes() / (RecordDirectory.ENTRY_SIZE + td.getSize()));
+    	}
         return res;
     }
 
+    // the bytes left for the records of a table whose tuples are not of
+    // fixed size and their directory entries
+    private int getFreeBytes() {
+    	int n = 0;
+    	int bytes = 0;
+    	for (int len : recordLengths) {
+    		if (len > 0) {
+    			n++;
+    			bytes += len;
+    		}
+    	}
+    	return BufferPool.getPageSize() - LSN_SIZE - RecordDirectory.usedBytes(n, bytes);
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public int getHeaderOffset() {
+        return LSN_SIZE;
+    }
+
+    public int getSlotsOffset() {
+        return LSN_SIZE + header.length;
+    }
+
+    public int getSlotSize() {
+        return recordLengths != null ? 0 : td.getSize();
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-    	if (i >= getNumTuples()) {
+    	if (i >= numSlots) {
     		return false;
     	}
     	int m = i / 8, n = i % 8;
@@ -338,7 +503,7 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-    	if (i >= getNumTuples()) return;
+    	if (i >= numSlots) return;
     	int m = i / 8, n = i % 8;
     	if (value) {
     		header[m] |= (1 << n);
@@ -360,7 +525,7 @@ public class HeapPage implements Page {
         	public boolean hasNext() {
         		while (!isSlotUsed(i)) {
         			i++;
-        			if (i >= getNumTuples()) {
+        			if (i >= numSlots) {
             			return false;
             		}
         		}
@@ -370,7 +535,7 @@ public class HeapPage implements Page {
         	@Override
         	public Tuple next() {
         		if (!hasNext()) throw new NoSuchElementException();
-        		return tuples[i++];
+        		return getTuple(i++);
         	}
         };
     }
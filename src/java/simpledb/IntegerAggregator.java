@@ -18,16 +18,35 @@ public class IntegerAggregator implements Aggregator {
     
     class Pair {
     	Field gpb;
-    	int res;
+    	int min;
+    	int max;
     	int count;
-    	int sum;
+    	long sum;
     	
     	Pair(Field a1) {
     		gpb = a1;
-    		res = Integer.MAX_VALUE;
+    		min = Integer.MAX_VALUE;
+    		max = Integer.MIN_VALUE;
     		count = 0;
     		sum = 0;
     	}
+
+    	// the sum is kept in a long, so that SUM, a LONG_TYPE, and AVG are
+    	// right when the sum of the group does not fit an int
+    	Field result() {
+    		switch(what) {
+    		case MIN:
+    			return new IntField(min);
+    		case MAX:
+    			return new IntField(max);
+    		case SUM:
+    			return new LongField(sum);
+    		case COUNT:
+    			return new IntField(count);
+    		default:
+    			return new IntField((int) (sum / count));
+    		}
+    	}
     }
     /**
      * Aggregate constructor
@@ -83,34 +102,8 @@ public class IntegerAggregator implements Aggregator {
     	Pair p = contents.get(idx);
     	p.count++;
     	p.sum += target;
-    	if (p.res == Integer.MAX_VALUE) {
-    		p.res = target;
-    		return;
-    	}
-    	switch(what) {
-    	case MIN:
-    		if (p.res > target) {
-    			p.res = target;
-    		}
-    		break;
-    	case MAX:
-    		if (p.res < target) {
-    			p.res = target;
-    		}
-    		break;
-    	case SUM:
-    		p.res += target;
-    		break;
-    	case COUNT:
-    		p.res = p.count;
-    		System.out.println("fjdskl");
-    		break;
-    	case AVG:
-    		p.res = p.sum / p.count;
-    		break;
-    	}
-    	
-    		
+    	p.min = Math.min(p.min, target);
+    	p.max = Math.max(p.max, target);
     }
 
     /**
@@ -141,9 +134,9 @@ public class IntegerAggregator implements Aggregator {
         		Tuple res = new Tuple(getTupleDesc());
         		if (gbfield != NO_GROUPING) {
 	        		res.setField(0, contents.get(i).gpb);
-	        		res.setField(1, new IntField(contents.get(i).res));
+	        		res.setField(1, contents.get(i).result());
         		} else {
-        			res.setField(0, new IntField(contents.get(i).res));
+        			res.setField(0, contents.get(i).result());
         		}
         		i++;
         		return res;
@@ -153,9 +146,9 @@ public class IntegerAggregator implements Aggregator {
         	}
         	public TupleDesc getTupleDesc() {
         		if (gbfield != NO_GROUPING) {
-        			return new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+        			return new TupleDesc(new Type[]{gbfieldtype, Aggregate.resultType(Type.INT_TYPE, what)});
         		} else {
-        			return new TupleDesc(new Type[] {Type.INT_TYPE});
+        			return new TupleDesc(new Type[] {Aggregate.resultType(Type.INT_TYPE, what)});
         		}
         	}
         	public void close() {
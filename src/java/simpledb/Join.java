@@ -105,7 +105,6 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-    	int i1 = child1.getTupleDesc().numFields(), i2 = child2.getTupleDesc().numFields();
     	while (child1.hasNext() || child2.hasNext()) {
     		if (t1 == null) {
     			if (child1.hasNext()) {
@@ -117,14 +116,7 @@ public class Join extends Operator {
     		while (child2.hasNext()) {
     			t2 = child2.next();
     			if (p.filter(t1, t2)) {
-    				Tuple res = new Tuple(getTupleDesc());
-    				for (int i = 0; i < i1; i++) {
-    					res.setField(i, t1.getField(i));
-    				}
-    				for (int i =  0; i < i2; i++) {
-    					res.setField(i+i1, t2.getField(i));
-    				}
-    				return res;
+    				return Tuple.join(getTupleDesc(), t1, t2);
     			} 
     		}
     		if (child1.hasNext()) {
@@ -11,6 +11,9 @@ public class JoinPredicate implements Serializable {
     private static final long serialVersionUID = 1L;
     private int field1, field2;
     private Predicate.Op op;
+    // the comparison for the type of field1 and op, chosen on the first
+    // call to filter
+    private transient FieldComparison comparison;
 
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
@@ -34,14 +37,20 @@ public class JoinPredicate implements Serializable {
     }
 
     /**
-     * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * Apply the predicate to the two specified tuples. The comparison has the
+     * meaning of Field's compare method, but is made by a FieldComparison
+     * chosen for the type of the fields of the first tuples compared.
      * 
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        return t1.getField(field1).compare(op, t2.getField(field2));
+        FieldComparison c = comparison;
+        if (c == null) {
+            c = FieldComparison.of(t1.getTupleDesc().getFieldType(field1), op);
+            comparison = c;
+        }
+        return c.test(t1, field1, t2, field2);
     }
     
     public int getField1()
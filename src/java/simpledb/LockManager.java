@@ -0,0 +1,449 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager implements the page-level shared and exclusive locks that
+ * BufferPool acquires on behalf of transactions.
+ * <p>
+ * Every page has a queue of lock requests.  A request is granted when it is
+ * compatible with the locks held on the page and no request ahead of it is
+ * waiting, so requests are granted in FIFO order and a stream of readers
+ * cannot starve a writer.  A transaction that holds the only shared lock on
+ * a page upgrades it to an exclusive lock in place; if other transactions
+ * share the page, the upgrade waits at the head of the queue until they are
+ * gone.  Waiting transactions sleep until a lock on their page is released.
+ * <p>
+ * Deadlocks are found with a waits-for graph: every waiting request records
+ * the transactions it waits for, namely the holders it conflicts with and the
+ * conflicting requests queued ahead of it.  When a request blocks, the lock
+ * manager looks for a cycle through its transaction and, if there is one,
+ * aborts the cheapest transaction on the cycle -- the one holding the fewest
+ * locks, or the youngest one if there is a tie.  Only the waiting request of
+ * the victim fails with a TransactionAbortedException; the other waiters keep
+ * waiting.  Since granting a lock can also close a cycle, waiters look for a
+ * cycle again every {@link #DEADLOCK_CHECK_MS} milliseconds.  Transactions are
+ * never aborted just because they have waited for a long time.
+ */
+public class LockManager {
+
+    /** How often a waiting transaction checks for a deadlock again. */
+    static final long DEADLOCK_CHECK_MS = 100;
+
+    private static class Request {
+        final TransactionId tid;
+        final boolean exclusive;
+        final LockState state;
+        // written under the monitor of state
+        boolean granted = false;
+        // set when the transaction is chosen as a deadlock victim
+        volatile boolean aborted = false;
+        // the transactions this request waits for, guarded by graph
+        Set<TransactionId> blockers = Collections.emptySet();
+
+        Request(TransactionId tid, boolean exclusive, LockState state) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+            this.state = state;
+        }
+    }
+
+    /** The holders and the queue of waiting requests of one page. */
+    private class LockState {
+        final PageId pid;
+        final HashSet<TransactionId> holders = new HashSet<TransactionId>();
+        boolean exclusive = false;
+        final LinkedList<Request> waiters = new LinkedList<Request>();
+        // set once the state is dropped from locks, under its monitor; a
+        // thread that finds it set looks the page up again
+        boolean removed = false;
+
+        LockState(PageId pid) {
+            this.pid = pid;
+        }
+
+        boolean compatible(Request r) {
+            if (holders.isEmpty()) {
+                return true;
+            }
+            boolean alone = holders.size() == 1 && holders.contains(r.tid);
+            return r.exclusive ? alone : !exclusive || alone;
+        }
+
+        boolean conflicts(Request a, Request b) {
+            return !a.tid.equals(b.tid) && (a.exclusive || b.exclusive);
+        }
+
+        void grant(Request r) {
+            r.granted = true;
+            holders.add(r.tid);
+            exclusive |= r.exclusive;
+            pagesLocked(r.tid).add(pid);
+        }
+
+        /** Grant the requests at the head of the queue that have become compatible. */
+        void grantWaiters() {
+            boolean granted = false;
+            while (!waiters.isEmpty() && compatible(waiters.getFirst())) {
+                Request r = waiters.removeFirst();
+                grant(r);
+                synchronized (graph) {
+                    r.blockers = Collections.emptySet();
+                }
+                granted = true;
+            }
+            if (granted) {
+                notifyAll();
+            }
+            updateBlockers();
+        }
+
+        /** Recompute the edges of the waits-for graph leaving the waiters of this page. */
+        void updateBlockers() {
+            synchronized (graph) {
+                for (Request w : waiters) {
+                    HashSet<TransactionId> b = new HashSet<TransactionId>();
+                    if (exclusive || w.exclusive) {
+                        b.addAll(holders);
+                        b.remove(w.tid);
+                    }
+                    for (Request ahead : waiters) {
+                        if (ahead == w) {
+                            break;
+                        }
+                        if (conflicts(ahead, w)) {
+                            b.add(ahead.tid);
+                        }
+                    }
+                    w.blockers = b;
+                }
+            }
+        }
+
+        void release(TransactionId tid) {
+            if (holders.remove(tid)) {
+                if (holders.isEmpty()) {
+                    exclusive = false;
+                }
+                grantWaiters();
+                removeIfUnused();
+            }
+        }
+
+        /** Drop the state of a page nobody holds or waits for from locks. */
+        void removeIfUnused() {
+            if (holders.isEmpty() && waiters.isEmpty()) {
+                removed = true;
+                locks.remove(pid, this);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, LockState> locks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> pagesByTransaction;
+
+    // Guards the waits-for graph.  It may be locked while holding the
+    // monitor of a LockState, but not the other way around.
+    private final Object graph = new Object();
+    private final HashMap<TransactionId, List<Request>> waiting;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<PageId, LockState>();
+        pagesByTransaction = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        waiting = new HashMap<TransactionId, List<Request>>();
+    }
+
+    private LockState lockState(PageId pid) {
+        LockState ls = locks.get(pid);
+        if (ls == null) {
+            LockState created = new LockState(pid);
+            ls = locks.putIfAbsent(pid, created);
+            if (ls == null) {
+                ls = created;
+            }
+        }
+        return ls;
+    }
+
+    private Set<PageId> pagesLocked(TransactionId tid) {
+        Set<PageId> pages = pagesByTransaction.get(tid);
+        if (pages == null) {
+            Set<PageId> created = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pages = pagesByTransaction.putIfAbsent(tid, created);
+            if (pages == null) {
+                pages = created;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Acquire a lock on a page, waiting until it can be granted.  Returns at
+     * once if the transaction already holds a lock of the requested strength.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive lock
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *     the victim of a deadlock, or was interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        if (tid == null || pid == null) {
+            return;
+        }
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        LockState ls;
+        Request r;
+        while (true) {
+            ls = lockState(pid);
+            synchronized (ls) {
+                if (ls.removed) {
+                    continue;
+                }
+                boolean holding = ls.holders.contains(tid);
+                if (holding && (ls.exclusive || !exclusive)) {
+                    return;
+                }
+                r = new Request(tid, exclusive, ls);
+                // an upgrade does not queue behind the transactions waiting for this page
+                if ((holding || ls.waiters.isEmpty()) && ls.compatible(r)) {
+                    ls.grant(r);
+                    return;
+                }
+                if (holding) {
+                    ls.waiters.addFirst(r);
+                } else {
+                    ls.waiters.addLast(r);
+                }
+                synchronized (graph) {
+                    List<Request> requests = waiting.get(tid);
+                    if (requests == null) {
+                        requests = new ArrayList<Request>(1);
+                        waiting.put(tid, requests);
+                    }
+                    requests.add(r);
+                }
+                ls.updateBlockers();
+                break;
+            }
+        }
+        try {
+            while (true) {
+                // look for a deadlock without holding the page's monitor,
+                // since waking up the victim takes the monitor of its page
+                detectDeadlock(tid);
+                synchronized (ls) {
+                    if (!r.granted && !r.aborted) {
+                        ls.wait(DEADLOCK_CHECK_MS);
+                    }
+                    if (r.granted) {
+                        return;
+                    }
+                    if (r.aborted) {
+                        throw new TransactionAbortedException();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            synchronized (ls) {
+                if (!r.granted) {
+                    // let the requests queued behind this one go ahead
+                    ls.waiters.remove(r);
+                    ls.grantWaiters();
+                    ls.removeIfUnused();
+                }
+            }
+            synchronized (graph) {
+                List<Request> requests = waiting.get(tid);
+                requests.remove(r);
+                if (requests.isEmpty()) {
+                    waiting.remove(tid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquire a lock on a page if that is possible without waiting.
+     *
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            LockState ls = lockState(pid);
+            synchronized (ls) {
+                if (ls.removed) {
+                    continue;
+                }
+                boolean holding = ls.holders.contains(tid);
+                if (holding && (ls.exclusive || !exclusive)) {
+                    return true;
+                }
+                Request r = new Request(tid, exclusive, ls);
+                if ((holding || ls.waiters.isEmpty()) && ls.compatible(r)) {
+                    ls.grant(r);
+                    return true;
+                }
+                ls.removeIfUnused();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Look for cycles in the waits-for graph through the given transaction
+     * and abort the waiting requests of the cheapest transaction on each,
+     * until there are none left.
+     */
+    private void detectDeadlock(TransactionId tid) {
+        List<Request> victims = new ArrayList<Request>();
+        synchronized (graph) {
+            List<TransactionId> cycle;
+            while ((cycle = findCycle(tid, tid, new HashSet<TransactionId>())) != null) {
+                victims.addAll(abortCheapest(cycle));
+            }
+        }
+        for (Request r : victims) {
+            synchronized (r.state) {
+                r.state.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Mark the waiting requests of the transaction on the cycle holding the
+     * fewest locks aborted and return them.  Must be called with graph locked.
+     */
+    private List<Request> abortCheapest(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimCost = Integer.MAX_VALUE;
+        for (TransactionId t : cycle) {
+            Set<PageId> pages = pagesByTransaction.get(t);
+            int cost = pages == null ? 0 : pages.size();
+            if (cost < victimCost || (cost == victimCost && t.getId() > victim.getId())) {
+                victim = t;
+                victimCost = cost;
+            }
+        }
+        List<Request> victims = waiting.get(victim);
+        for (Request r : victims) {
+            r.aborted = true;
+            r.blockers = Collections.emptySet();
+        }
+        return victims;
+    }
+
+    /**
+     * Returns the transactions on a path in the waits-for graph from the
+     * given transaction back to target, or null if there is none.
+     * Must be called with graph locked.
+     */
+    private List<TransactionId> findCycle(TransactionId from, TransactionId target,
+            HashSet<TransactionId> visited) {
+        List<Request> requests = waiting.get(from);
+        if (requests == null) {
+            return null;
+        }
+        for (Request r : requests) {
+            if (r.aborted) {
+                continue;
+            }
+            for (TransactionId next : r.blockers) {
+                List<TransactionId> path = null;
+                if (next.equals(target)) {
+                    path = new ArrayList<TransactionId>();
+                } else if (visited.add(next)) {
+                    path = findCycle(next, target, visited);
+                }
+                if (path != null) {
+                    path.add(from);
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Release the lock a transaction holds on a page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        if (tid == null || pid == null) {
+            return;
+        }
+        Set<PageId> pages = pagesByTransaction.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        LockState ls = locks.get(pid);
+        if (ls != null) {
+            synchronized (ls) {
+                ls.release(tid);
+            }
+        }
+    }
+
+    /**
+     * Release all locks held by a transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        if (tid == null) {
+            return;
+        }
+        Set<PageId> pages = pagesByTransaction.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            LockState ls = locks.get(pid);
+            if (ls == null) {
+                continue;
+            }
+            synchronized (ls) {
+                ls.release(tid);
+            }
+        }
+    }
+
+    /** Returns the number of pages with a lock held or requested. */
+    int numLockedPages() {
+        return locks.size();
+    }
+
+    /** Return true if the transaction holds a lock of either kind on the page. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        LockState ls = locks.get(pid);
+        if (tid == null || ls == null) {
+            return false;
+        }
+        synchronized (ls) {
+            return ls.holders.contains(tid);
+        }
+    }
+
+    /**
+     * Return true if a transaction other than tid holds an exclusive lock
+     * on the page.
+     */
+    public boolean isWriteLockedByOther(TransactionId tid, PageId pid) {
+        LockState ls = locks.get(pid);
+        if (ls == null) {
+            return false;
+        }
+        synchronized (ls) {
+            return ls.exclusive && !ls.holders.contains(tid);
+        }
+    }
+}
@@ -1,9 +1,19 @@
-
 package simpledb;
 
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -11,48 +21,109 @@ able to write different log records as needed, but it is the
 responsibility of the caller to ensure that write ahead logging and
 two-phase locking discipline are followed.  <p>
 
+<u> Log buffer: </u>
+<p>
+
+Log records are not written to the log file by the threads that log
+them.  A record is encoded into a buffer of the logging thread, given
+its LSN -- the position in the log it will be written to -- by an
+atomic counter, and copied into an in-memory ring buffer.  A
+background {@link LogWriter} drains the ring into the log in large
+sequential writes.  Threads that need their records on disk, such as
+committing transactions and the BufferPool before it writes a dirty
+page, call force(), which waits for the writer to catch up and then
+forces the log file.
+
 <u> Locking note: </u>
 <p>
 
-Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+Appending a record takes the read lock of appendLock, so records are
+appended concurrently; rewriting the log file (on truncation and
+recovery) and taking the list of active transactions (on checkpoints)
+take its write lock.  Records are read through an input of their own
+(see {@link LogSegments#open}), which needs no lock.  BufferPool has no
+lock on the whole pool; instead it latches the pages it reads, writes or
+discards, and it may write log records (on page flushed or evicted)
+while holding the latch of a page.  The log file in turn restores
+BufferPool pages (on rollback and recovery.)  To avoid deadlock, a
+LogFile operation must not hold any of its locks while it calls into the
+BufferPool:
 
 <p>
 <pre>
-    synchronized (Database.getBufferPool()) {
-       synchronized (this) {
+    appendLock.readLock().lock();
+    try {
 
        ..
 
-       }
+    } finally {
+       appendLock.readLock().unlock();
     }
+    Database.getBufferPool().restorePage(p);
 </pre>
+
+<u> Checkpoints: </u>
+<p>
+
+Checkpoints are fuzzy: they write no pages.  The log keeps a dirty page
+table, which maps every page with logged changes that may not be in its
+table yet to its recLSN, the LSN of the first such record.  A page is
+entered when a record for it is appended and leaves when the BufferPool
+writes it (see {@link #pageWritten}).  A CHECKPOINT record holds the
+active transactions and the dirty page table; redo after a crash starts
+at the smallest recLSN, and everything before that and before the first
+record of every active transaction is truncated away.  Taking a
+checkpoint only holds up appends while the two tables are copied, and
+the page cleaner of the BufferPool writes the pages out in its own time.
+
+<u> Group commit: </u>
+<p>
+
+A committing transaction does not force the log itself.  It appends its
+COMMIT record and waits until some force covers the record.  The first
+committer to wait becomes the leader: it waits up to the maximum commit
+delay (see {@link #setMaxCommitDelay}) for more committers to append
+their records, then forces the log once for all of them.  Committers
+that arrive while the leader is forcing wait for the next leader.
+
+<u> Recovery: </u>
+<p>
+
+Every HeapPage and B+ tree page stores a page LSN, the LSN of the last
+record whose change it holds, which the BufferPool sets when it logs the
+page.  Recovery reads the log once to find the committed and the losing
+transactions, then repairs the pages on their own: for each page it
+redoes the committed changes logged after the page LSN it has on disk,
+undoes the changes of the losers and writes the page back.  Pages do
+not depend on each other, so they are split by page id among several
+worker threads (see {@link #setRecoveryThreads}.)
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log is stored in segment files of a fixed size next to the log
+file, and every byte of the log has an LSN, which keeps growing across
+segments (see {@link LogSegments}.)  Truncating the log deletes whole
+segments.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log file itself holds two long integers: the LSN of the last
+written checkpoint, or -1 if there are no checkpoints, and the LSN of
+the first record in the log.
+
+<li> All data in the segments consists of log records.  Log records are
+variable length and may span two segments.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer LSN representing the
+position in the log where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, SLOT, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,11 +132,20 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>SLOT records are written instead of UPDATE records for pages that
+only changed in the slots of their tuples (see {@link SlottedPage}).
+They consist of the page class name and the page id, in the format
+of the page data of UPDATE records but without the page bytes,
+followed by a {@link SlotDelta} listing the tuples inserted and
+deleted.
+
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction id
+and a long integer first record LSN for each active transaction;
+then an integer count of the number of dirty pages, as well as a page
+id (see writePageId) and a long integer recLSN for each dirty page.
 
 </ul>
 
@@ -74,24 +154,71 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    final LogSegments segments;
+    volatile Boolean recoveryUndecided; // no call to recover() and no append to log
+    // throw out a log that needs recovery on the first append instead of
+    // refusing to append; set by Database.reset() for the tests
+    boolean discardUnrecovered = false;
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SLOT_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    /** Size of the in-memory log buffer, in bytes */
+    public static final int BUFFER_BYTES = 1 << 20;
+
+    // LSN of the next record appended
+    final AtomicLong nextLsn = new AtomicLong(-1);
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    private final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+    private final AtomicLong forceCount = new AtomicLong();
+
+    Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<Long,Long>();
+    // the dirty page table: the recLSN of every page whose logged changes
+    // may not be in its table yet
+    final Map<PageId,Long> dirtyPages = new ConcurrentHashMap<PageId,Long>();
+
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+
+    // the ring buffer; the byte with LSN x is at x % BUFFER_BYTES
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final Object bufferLock = new Object();
+    private long filledLsn; // records below are in the buffer //protected by bufferLock
+    private long writtenLsn; // records below are in the log file //protected by bufferLock
+    private LogWriter writer; //protected by bufferLock
+    private IOException writeFailure; //protected by bufferLock
+
+    /** Default maximum time a group commit leader waits for more commits, in microseconds */
+    public static final long DEFAULT_MAX_COMMIT_DELAY_MICROS = 0;
+
+    private final Object flushLock = new Object();
+    private long forcedLsn = 0; // records below are on disk //protected by flushLock
+    private int truncations = 0; // times the log file was rewritten //protected by flushLock
+    private boolean forcing = false; // a leader is forcing the log //protected by flushLock
+    private volatile long maxCommitDelayMicros = DEFAULT_MAX_COMMIT_DELAY_MICROS;
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The buffer a thread encodes its log records into. */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        final DataOutputStream out = new DataOutputStream(this);
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
 
-    HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    private static final ThreadLocal<RecordBuffer> recordBuffers = new ThreadLocal<RecordBuffer>() {
+        protected RecordBuffer initialValue() {
+            return new RecordBuffer();
+        }
+    };
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -100,13 +227,26 @@ public class LogFile {
         will eventually want to recover (after populating the Catalog).
         So we make this decision lazily: if someone calls recover(), then
         do it, while if someone starts adding log file entries, then first
-        throw out the initial log file contents.
+        throw out the initial log file contents -- unless they have to be
+        recovered (see {@link #needsRecovery()}), in which case appending
+        fails until recover() has run.
 
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, LogSegments.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /** Constructor.
+        Back the log file with the specified file and segment files
+        of the specified size.
+
+        @param f The log file's name
+        @param segmentBytes The size of a segment file
+    */
+    LogFile(File f, long segmentBytes) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentBytes);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -122,68 +262,388 @@ public class LogFile {
 
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
-    // the log.
+    // the log, unless that would lose changes that were never recovered.
+    // Must not be called with the read lock of appendLock held.
     void preAppend() throws IOException {
-        totalRecords++;
         if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            appendLock.writeLock().lock();
+            try {
+                if (recoveryUndecided) {
+                    if (!discardUnrecovered && needsRecovery()) {
+                        throw new IOException("the log has records after its last checkpoint;"
+                                + " recover() must run before anything is logged");
+                    }
+                    recoveryUndecided = false;
+                    segments.reset();
+                    startAt(segments.getStartLsn());
+                }
+            } finally {
+                appendLock.writeLock().unlock();
+            }
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    // the log was (re)started and ends at lsn; the next record goes there
+    private void startAt(long lsn) {
+        synchronized (flushLock) {
+            synchronized (bufferLock) {
+                nextLsn.set(lsn);
+                filledLsn = lsn;
+                writtenLsn = lsn;
+            }
+            // LSNs before a restart say nothing about the new log
+            truncations++;
+            forcedLsn = lsn;
+            flushLock.notifyAll();
+        }
     }
-    
-    /** Write an abort record to the log for the specified tid, force
-        the log to disk, and perform a rollback
-        @param tid The aborting transaction.
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /**
+     * Returns true if the log was left by a database that did not shut down
+     * cleanly and recover() has not run yet: the log has records and does
+     * not end with a checkpoint taken while no transaction was running and
+     * no page was dirty.
+     * Once recover() has run or a record has been appended, returns false.
+     */
+    public boolean needsRecovery() throws IOException {
+        if (!recoveryUndecided) {
+            return false;
+        }
+        long cpLoc = segments.getCheckpointLsn();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            // any record at all has to be recovered
+            LogSegments.Input in = segments.open(segments.getStartLsn());
+            try {
+                return in.read() != -1;
+            } finally {
+                in.close();
+            }
+        }
+        LogSegments.Input in = segments.open(cpLoc);
+        try {
+            if (in.readInt() != CHECKPOINT_RECORD) {
+                return true;
+            }
+            in.readLong();
+            if (in.readInt() != 0 || in.readInt() != 0) {
+                // transactions or dirty pages at the checkpoint
+                return true;
+            }
+            in.readLong();
+            return in.read() != -1;
+        } catch (EOFException e) {
+            // a checkpoint cut short by the crash
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    public long getForceCount() {
+        return forceCount.get();
+    }
+
+    /** Returns true if the specified transaction has written log
+        records and has not committed or aborted yet.
+
+        @param tid The transaction to check
     */
-    public void logAbort(TransactionId tid) throws IOException {
-        // must have buffer pool lock before proceeding, since this
-        // calls rollback
+    public boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** Returns this thread's record buffer, holding the start of a
+        new record of the specified type. */
+    private RecordBuffer startRecord(int type, long tid) throws IOException {
+        RecordBuffer rec = recordBuffers.get();
+        rec.reset();
+        rec.out.writeInt(type);
+        rec.out.writeLong(tid);
+        return rec;
+    }
+
+    /** Tell the log that a page was written to its table with all of
+        its logged changes, so that recovery need not redo them.  Must
+        be called before the page can be changed and logged again.
+
+        @param pid The page that was written
+    */
+    public void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
+
+    private long append(RecordBuffer rec, int type, long tid) throws IOException {
+        return append(rec, type, tid, null);
+    }
+
+    /** Finish the record in rec, append it to the log buffer and
+        return its LSN.  Waits if the buffer is full.
+
+        @param rec The record, without its start offset
+        @param type The type of the record
+        @param tid The transaction id of the record
+        @param pid The page an UPDATE or SLOT record changes
+    */
+    private long append(RecordBuffer rec, int type, long tid, PageId pid) throws IOException {
+        rec.out.writeLong(0); // the start offset, filled in below
+        int len = rec.size();
+        if (len > BUFFER_BYTES) {
+            throw new IOException("log record of " + len + " bytes does not fit in the log buffer");
+        }
+        byte[] bytes = rec.bytes();
+        preAppend();
+        appendLock.readLock().lock();
+        try {
+            long lsn = nextLsn.getAndAdd(len);
+            ByteBuffer.wrap(bytes).putLong(len - LONG_SIZE, lsn);
+
+            boolean interrupted = false;
+            synchronized (bufferLock) {
+                // the part of the ring the record goes to must be written out
+                while (lsn + len - writtenLsn > BUFFER_BYTES) {
+                    checkWriter();
+                    startWriter().wakeUp();
+                    try {
+                        bufferLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
 
-        synchronized (Database.getBufferPool()) {
+            // other threads copy their records to other parts of the ring
+            int pos = (int)(lsn % BUFFER_BYTES);
+            int head = Math.min(len, BUFFER_BYTES - pos);
+            ByteBuffer ring = buffer.duplicate();
+            ring.position(pos);
+            ring.put(bytes, 0, head);
+            if (head < len) {
+                ring.position(0);
+                ring.put(bytes, head, len - head);
+            }
 
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
+            synchronized (bufferLock) {
+                // the writer sees the records in LSN order; a reserved LSN
+                // has to be filled, so this wait cannot be given up
+                while (filledLsn != lsn) {
+                    // an earlier record may never be filled if the log
+                    // cannot be written
+                    checkWriter();
+                    try {
+                        bufferLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                filledLsn = lsn + len;
+                bufferLock.notifyAll();
+                if (filledLsn - writtenLsn > BUFFER_BYTES / 2 && writeFailure == null) {
+                    startWriter().wakeUp();
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            totalRecords.incrementAndGet();
+            switch (type) {
+            case BEGIN_RECORD:
+                tidToFirstLogRecord.put(tid, lsn);
+                break;
+            case UPDATE_RECORD:
+            case SLOT_RECORD:
+                // a transaction that did not log a BEGIN record starts here
+                if (!tidToFirstLogRecord.containsKey(tid)) {
+                    tidToFirstLogRecord.put(tid, lsn);
+                }
+                // still under the read lock, so a checkpoint sees the
+                // page if it sees the record
+                dirtyPages.putIfAbsent(pid, lsn);
+                break;
+            case COMMIT_RECORD:
+            case ABORT_RECORD:
+                tidToFirstLogRecord.remove(tid);
+                break;
+            }
+            return lsn;
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
+    /** Throws if the log writer has failed.  A failed log is not written
+        again, as the records it could not write are lost, so no writer is
+        started after that.  Must be called with bufferLock held. */
+    private void checkWriter() throws IOException {
+        if (writeFailure != null) {
+            throw new IOException("could not write the log: " + writeFailure);
+        }
+    }
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+    /** Returns the running log writer, starting one if there is none.
+        Must be called with bufferLock held, and not after the writer has
+        failed. */
+    private LogWriter startWriter() {
+        if (writer == null || writer.isStopped()) {
+            writer = new LogWriter(this);
+            writer.start();
+        }
+        return writer;
+    }
+
+    /** Write the records in the log buffer to the log file.  Called
+        by the log writer.
+
+        @return the number of bytes written
+    */
+    long writeBuffered() throws IOException {
+        long from, to;
+        synchronized (bufferLock) {
+            from = writtenLsn;
+            to = filledLsn;
+        }
+        long lsn = from;
+        while (lsn < to) {
+            int pos = (int)(lsn % BUFFER_BYTES);
+            ByteBuffer ring = buffer.duplicate();
+            ring.position(pos);
+            ring.limit(pos + (int)Math.min(to - lsn, BUFFER_BYTES - pos));
+            int len = ring.remaining();
+            segments.write(ring, lsn);
+            lsn += len;
+        }
+        if (to > from) {
+            synchronized (bufferLock) {
+                writtenLsn = to;
+                bufferLock.notifyAll();
             }
         }
+        return to - from;
+    }
+
+    /** Called by the log writer when it cannot write the log file. */
+    void writerFailed(IOException e) {
+        synchronized (bufferLock) {
+            writeFailure = e;
+            bufferLock.notifyAll();
+        }
+    }
+
+    // wait until the records below lsn are in the log file
+    private void flush(long lsn) throws IOException {
+        boolean interrupted = false;
+        synchronized (bufferLock) {
+            while (writtenLsn < lsn) {
+                checkWriter();
+                startWriter().wakeUp();
+                try {
+                    bufferLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Write an abort record to the log for the specified tid, force
+        the log to disk, and perform a rollback
+        @param tid The aborting transaction.
+    */
+    public void logAbort(TransactionId tid) throws IOException {
+        // must do this here, since rollback only works for
+        // live transactions (needs tidToFirstLogRecord); it restores
+        // BufferPool pages, so it runs without the locks of the log
+        rollback(tid);
+
+        //Debug.log("ABORT");
+        append(startRecord(ABORT_RECORD, tid.getId()), ABORT_RECORD, tid.getId());
+        force();
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log is forced to disk.  Commits that
+        happen at the same time share one force.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
+    public void logCommit(TransactionId tid) throws IOException {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+        append(startRecord(COMMIT_RECORD, tid.getId()), COMMIT_RECORD, tid.getId());
+        groupForce();
+    }
+
+    /** Set the longest time the leader of a group commit waits for
+        more transactions to commit before it forces the log.  With
+        0, the leader forces the log at once, and only the commits
+        that arrive while it does so are grouped.
+
+        @param micros The delay in microseconds
+    */
+    public void setMaxCommitDelay(long micros) {
+        maxCommitDelayMicros = micros;
+    }
+
+    /** Set the number of threads recover() repairs pages with.  The
+        default is the number of processors.
+
+        @param threads The number of threads, at least 1
+    */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one recovery thread");
+        }
+        recoveryThreads = threads;
+    }
+
+    /** Force the log to disk like force(), but share the force with
+        the other threads that want the log forced at the same time.
+        Returns once everything this thread appended is on disk.
+    */
+    public void groupForce() throws IOException {
+        boolean leading = false;
+        synchronized (flushLock) {
+            long target = nextLsn.get();
+            int epoch = truncations;
+            try {
+                while (forcedLsn < target && epoch == truncations && forcing) {
+                    flushLock.wait();
+                }
+                if (forcedLsn >= target || epoch != truncations) {
+                    return;
+                }
+                // this thread leads the next group
+                forcing = true;
+                leading = true;
+                long deadline = System.nanoTime() + maxCommitDelayMicros * 1000;
+                long left;
+                while ((left = deadline - System.nanoTime()) > 0) {
+                    flushLock.wait(left / 1000000, (int)(left % 1000000));
+                }
+            } catch (InterruptedException e) {
+                if (!leading) {
+                    throw new InterruptedIOException();
+                }
+                // the others are waiting for the leader's force
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            force();
+        } finally {
+            synchronized (flushLock) {
+                forcing = false;
+                flushLock.notifyAll();
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -191,14 +651,14 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record, which becomes the page LSN of the
+        page (see {@link Page#setLSN})
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
         /* update record conists of
 
            record type
@@ -206,22 +666,42 @@ public class LogFile {
            before page data (see writePageData)
            after page data
            start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           slot record consists of
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
-    }
+           record type
+           transaction id
+           page class name
+           page id (see writePageId)
+           slot delta (see SlotDelta.writeTo)
+           start offset
+        */
+        SlotDelta delta = null;
+        if (before instanceof SlottedPage && after instanceof SlottedPage) {
+            delta = SlotDelta.diff((SlottedPage)before, (SlottedPage)after);
+        }
+        RecordBuffer rec;
+        int type;
+        if (delta != null) {
+            // only tuples changed, so log them instead of the page images
+            type = SLOT_RECORD;
+            rec = startRecord(type, tid.getId());
+            rec.out.writeUTF(after.getClass().getName());
+            writePageId(rec.out, after.getId());
+            delta.writeTo(rec.out);
+        } else {
+            type = UPDATE_RECORD;
+            rec = startRecord(type, tid.getId());
+            writePageData(rec.out,before);
+            writePageData(rec.out,after);
+        }
+        long lsn = append(rec, type, tid.getId(), after.getId());
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+        Debug.log("WRITE OFFSET = " + lsn);
+        return lsn;
+    }
 
+    void writePageData(DataOutput raf, Page p) throws IOException{
         //page data is:
         // page class name
         // id class name
@@ -230,52 +710,84 @@ public class LogFile {
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        raf.writeUTF(p.getClass().getName());
+        writePageId(raf, p.getId());
+        byte[] pageData = p.getPageData();
+        raf.writeInt(pageData.length);
+        raf.write(pageData);
+        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    }
+
+    // write the id class name, id class bytes and id class data of page data
+    void writePageId(DataOutput raf, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        raf.writeUTF(pid.getClass().getName());
 
         raf.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
+    Page readPageData(DataInput raf) throws IOException {
         String pageClassName = raf.readUTF();
+        PageId pid = readPageId(raf);
+
+        int pageSize = raf.readInt();
+
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData); //read before image
+
+        return newPage(pageClassName, pid, pageData);
+    }
+
+    // read the id class name, id class bytes and id class data of page data
+    PageId readPageId(DataInput raf) throws IOException {
         String idClassName = raf.readUTF();
 
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            Constructor<?> idConst = null;
+            for (Constructor<?> c : idClass.getDeclaredConstructors()) {
+                if (c.getParameterTypes().length == numIdArgs) {
+                    idConst = c;
+                }
+            }
+            return (PageId)idConst.newInstance(idArgs);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    // build a page of the named class from its data
+    Page newPage(String pageClassName, PageId pid, byte[] pageData) throws IOException {
+        Page newPage = null;
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            // pages can also be built from a ByteBuffer, and B+ tree
+            // pages take the key field of their file as well
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length < 2 || params[1] != byte[].class) {
+                    continue;
+                }
+                if (params.length == 2) {
+                    newPage = (Page)c.newInstance(pid, pageData);
+                } else {
+                    BTreeFile f = (BTreeFile)Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    newPage = (Page)c.newInstance(pid, pageData, f.keyField());
+                }
+                break;
+            }
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -299,158 +811,125 @@ public class LogFile {
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
             System.err.printf("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = append(startRecord(BEGIN_RECORD, tid.getId()), BEGIN_RECORD, tid.getId());
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN OFFSET = " + lsn);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  No pages
+        are written; the record says which ones recovery has to redo. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        preAppend();
+        long startCpOffset;
+        appendLock.writeLock().lock();
+        try {
+            // nothing is appended while the write lock is held, so the
+            // lists of active transactions and dirty pages are complete
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            RecordBuffer rec = startRecord(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            rec.out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long,Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                rec.out.writeLong(e.getKey());
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + e.getValue());
+                rec.out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            rec.out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId,Long> e : dirtyPages.entrySet()) {
+                writePageId(rec.out, e.getKey());
+                rec.out.writeLong(e.getValue());
             }
+            startCpOffset = append(rec, CHECKPOINT_RECORD, -1);
+        } finally {
+            appendLock.writeLock().unlock();
         }
 
+        //once the CP is on disk, make sure the CP location in the
+        // header of the log is updated; appends go on during the force
+        force();
+        segments.setCheckpointLsn(startCpOffset);
+        //Debug.log("CP OFFSET = " + startCpOffset);
+
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
-    public synchronized void logTruncate() throws IOException {
+    public void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        // records are never moved, so appends can go on
+        appendLock.readLock().lock();
+        try {
+            truncate();
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    // drop the log before the first record that is still needed, which is
+    // the last checkpoint, the first record of a transaction that was
+    // active at the checkpoint or the oldest change that may not be on disk
+    private void truncate() throws IOException {
+        long cpLoc = segments.getCheckpointLsn();
 
         long minLogRecord = cpLoc;
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
+        if (cpLoc == -1L) {
+            // without a checkpoint, everything may still be needed
+            return;
+        }
+
+        LogSegments.Input in = segments.open(cpLoc);
+        try {
+            int cpType = in.readInt();
             @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            long cpTid = in.readLong();
 
             if (cpType != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            int numOutstanding = in.readInt();
 
             for (int i = 0; i < numOutstanding; i++) {
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
+                long tid = in.readLong();
+                long firstLogRecord = in.readLong();
                 if (firstLogRecord < minLogRecord) {
                     minLogRecord = firstLogRecord;
                 }
             }
-        }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
+            // and redo starts at the oldest change that may not be on disk
+            int numDirty = in.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                readPageId(in);
+                long recLsn = in.readLong();
+                if (recLsn < minLogRecord) {
+                    minLogRecord = recLsn;
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
+        } finally {
+            in.close();
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord);
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        // we can truncate everything before minLogRecord
+        if (minLogRecord > segments.getStartLsn()) {
+            segments.truncate(minLogRecord);
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -463,22 +942,191 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+        // the changes of the transaction in log order
+        ArrayList<Change> changes = new ArrayList<Change>();
+        preAppend();
+        appendLock.readLock().lock();
+        try {
+            Long first = tidToFirstLogRecord.get(tid.getId());
+            if (first == null) {
+                throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
             }
+            long end = nextLsn.get();
+            flush(end);
+            LogSegments.Input in = segments.open(first);
+            try {
+                while (in.getFilePointer() < end) {
+                    long start = in.getFilePointer();
+                    int type = in.readInt();
+                    long record_tid = in.readLong();
+                    if (type == UPDATE_RECORD || type == SLOT_RECORD) {
+                        Change c = readChange(in, type, record_tid, start);
+                        if (record_tid == tid.getId()) {
+                            changes.add(c);
+                        }
+                    } else if (type == CHECKPOINT_RECORD) {
+                        readCheckpoint(in);
+                    }
+                    in.readLong();
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            appendLock.readLock().unlock();
+        }
+
+        // the transaction still holds its locks, so nobody else can use
+        // these pages until it is done
+        PageImages pages = new PageImages(Long.MAX_VALUE);
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            pages.undo(changes.get(i));
+        }
+        pages.restore();
+    }
+
+    /** An UPDATE or SLOT record read back from the log */
+    private static class Change {
+        final long lsn;
+        final long tid;
+        final PageId pid;
+        final String pageClassName;
+        // the images of an UPDATE record, or the delta of a SLOT record
+        final Page before, after;
+        final SlotDelta delta;
+
+        Change(long lsn, long tid, PageId pid, String pageClassName, Page before, Page after,
+                SlotDelta delta) {
+            this.lsn = lsn;
+            this.tid = tid;
+            this.pid = pid;
+            this.pageClassName = pageClassName;
+            this.before = before;
+            this.after = after;
+            this.delta = delta;
+        }
+    }
+
+    /** Read the body of an UPDATE or SLOT record */
+    private Change readChange(DataInput in, int type, long tid, long lsn) throws IOException {
+        if (type == UPDATE_RECORD) {
+            Page before = readPageData(in);
+            Page after = readPageData(in);
+            return new Change(lsn, tid, after.getId(), after.getClass().getName(), before, after, null);
+        }
+        String pageClassName = in.readUTF();
+        PageId pid = readPageId(in);
+        return new Change(lsn, tid, pid, pageClassName, null, null, SlotDelta.readFrom(in));
+    }
+
+    /**
+     * The data of the pages a rollback or recovery changes.  A page starts
+     * out as it is on disk the first time it is needed, with the page LSN
+     * it has there; a change logged at or before that LSN is already on the
+     * page and is not redone.  The images of an UPDATE record replace the
+     * data of a page as a whole.  Only the pages that changed are written
+     * back, with the LSN of the last change redone on them.
+     */
+    private class PageImages {
+        private final long endLsn;
+        private final LinkedHashMap<PageId,byte[]> data = new LinkedHashMap<PageId,byte[]>();
+        private final HashMap<PageId,String> classes = new HashMap<PageId,String>();
+        private final HashMap<PageId,Long> lsns = new HashMap<PageId,Long>();
+        private final LinkedHashSet<PageId> changed = new LinkedHashSet<PageId>();
+
+        /**
+         * @param endLsn the end of the log; a page LSN past it was left by
+         *     an older log and does not count
+         */
+        PageImages(long endLsn) {
+            this.endLsn = endLsn;
+        }
+
+        private byte[] get(Change c) {
+            byte[] d = data.get(c.pid);
+            if (d == null) {
+                Page p = Database.getCatalog().getDatabaseFile(c.pid.getTableId()).readPage(c.pid);
+                d = p.getPageData();
+                data.put(c.pid, d);
+                classes.put(c.pid, c.pageClassName);
+                lsns.put(c.pid, p.getLSN() < endLsn ? p.getLSN() : 0);
+            }
+            return d;
+        }
+
+        private void put(Change c, byte[] d) {
+            data.put(c.pid, d);
+            classes.put(c.pid, c.pageClassName);
+            changed.add(c.pid);
+        }
+
+        void redo(Change c) {
+            byte[] d = get(c);
+            if (c.lsn <= lsns.get(c.pid)) {
+                return;
+            }
+            if (c.delta == null) {
+                put(c, c.after.getPageData());
+            } else {
+                c.delta.redo(d);
+                changed.add(c.pid);
+            }
+            lsns.put(c.pid, c.lsn);
+        }
+
+        void undo(Change c) {
+            if (c.delta == null) {
+                put(c, c.before.getPageData());
+            } else {
+                c.delta.undo(get(c));
+                changed.add(c.pid);
+            }
+        }
+
+        /** Write the changed pages out, replacing any cached copies */
+        void restore() throws IOException {
+            BufferPool bp = Database.getBufferPool();
+            for (PageId pid : changed) {
+                Page p = newPage(classes.get(pid), pid, data.get(pid));
+                Long lsn = lsns.get(pid);
+                if (lsn != null) {
+                    p.setLSN(lsn);
+                }
+                bp.restorePage(p);
+            }
+        }
+    }
+
+    /** Read the body of a CHECKPOINT record, skipping the list of
+        active transactions and returning the dirty page table */
+    private HashMap<PageId,Long> readCheckpoint(DataInput in) throws IOException {
+        int count = in.readInt();
+        in.skipBytes(count * 2 * LONG_SIZE);
+        HashMap<PageId,Long> pages = new HashMap<PageId,Long>();
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            PageId pid = readPageId(in);
+            pages.put(pid, in.readLong());
         }
+        return pages;
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            LogWriter w;
+            synchronized (bufferLock) {
+                w = writer;
+                writer = null;
+            }
+            if (w != null) {
+                w.shutdown();
+            }
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -490,12 +1138,174 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+        HashSet<Long> committed = new HashSet<Long>();
+        // transactions that have not committed or aborted, in the order
+        // of their first record
+        LinkedHashSet<Long> losers = new LinkedHashSet<Long>();
+        // the changes of all transactions in log order
+        ArrayList<Change> changes = new ArrayList<Change>();
+        // the dirty page table of the last checkpoint
+        long cpLoc = NO_CHECKPOINT_ID;
+        HashMap<PageId,Long> checkpointPages = new HashMap<PageId,Long>();
+        long end;
+
+        appendLock.writeLock().lock();
+        try {
+            recoveryUndecided = false;
+            cpLoc = segments.getCheckpointLsn();
+            LogSegments.Input in = segments.open(segments.getStartLsn());
+            try {
+                long start;
+                while (true) {
+                    start = in.getFilePointer();
+                    try {
+                        int type = in.readInt();
+                        long record_tid = in.readLong();
+                        switch (type) {
+                        case BEGIN_RECORD:
+                            losers.add(record_tid);
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(record_tid);
+                            losers.remove(record_tid);
+                            break;
+                        case ABORT_RECORD:
+                            // rolled back before the record was written
+                            losers.remove(record_tid);
+                            break;
+                        case UPDATE_RECORD:
+                        case SLOT_RECORD:
+                            changes.add(readChange(in, type, record_tid, start));
+                            if (!committed.contains(record_tid)) {
+                                losers.add(record_tid);
+                            }
+                            break;
+                        case CHECKPOINT_RECORD:
+                            HashMap<PageId,Long> cpPages = readCheckpoint(in);
+                            if (start == cpLoc) {
+                                checkpointPages = cpPages;
+                            }
+                            break;
+                        }
+                        in.readLong();
+                    } catch (EOFException e) {
+                        // the end of the log, or a record cut short by
+                        // the crash
+                        segments.cutAt(start);
+                        break;
+                    }
+                }
+                tidToFirstLogRecord.clear();
+                dirtyPages.clear();
+                startAt(start);
+                end = start;
+            } finally {
+                in.close();
+            }
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+
+        // the changes to redo and undo, by page.  A change logged before
+        // the last checkpoint is only missing from the disk if its page was
+        // in the dirty page table, with a recLSN no later than it
+        LinkedHashMap<PageId,ArrayList<Change>> byPage = new LinkedHashMap<PageId,ArrayList<Change>>();
+        for (Change c : changes) {
+            if (committed.contains(c.tid)) {
+                Long recLsn = checkpointPages.get(c.pid);
+                if (cpLoc != NO_CHECKPOINT_ID && c.lsn <= cpLoc
+                        && (recLsn == null || c.lsn < recLsn)) {
+                    continue;
+                }
+            } else if (!losers.contains(c.tid)) {
+                continue;
+            }
+            ArrayList<Change> l = byPage.get(c.pid);
+            if (l == null) {
+                l = new ArrayList<Change>();
+                byPage.put(c.pid, l);
+            }
+            l.add(c);
+        }
+        repairPages(byPage.values(), committed, end);
+
+        ArrayList<Long> undo = new ArrayList<Long>(losers);
+        Collections.reverse(undo);
+
+        // the losers are rolled back now; record that, so that the next
+        // recovery does not undo them again over newer changes
+        for (Long tid : undo) {
+            append(startRecord(ABORT_RECORD, tid), ABORT_RECORD, tid);
+        }
+        force();
+    }
+
+    /**
+     * Redo the committed changes of each page in log order and undo the
+     * others, the last one first, then write the page back.  The pages
+     * are split among the recovery threads by page id.
+     *
+     * @param pages the changes of each page, in log order
+     * @param committed the transactions whose changes are redone
+     * @param end the end of the log
+     */
+    private void repairPages(Collection<ArrayList<Change>> pages, final Set<Long> committed,
+            final long end) throws IOException {
+        int n = Math.max(1, Math.min(recoveryThreads, pages.size()));
+        ArrayList<ArrayList<ArrayList<Change>>> parts = new ArrayList<ArrayList<ArrayList<Change>>>();
+        for (int i = 0; i < n; i++) {
+            parts.add(new ArrayList<ArrayList<Change>>());
+        }
+        for (ArrayList<Change> l : pages) {
+            parts.get((l.get(0).pid.hashCode() & Integer.MAX_VALUE) % n).add(l);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(n, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LogFile recovery");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+            for (final ArrayList<ArrayList<Change>> part : parts) {
+                done.add(workers.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        for (ArrayList<Change> l : part) {
+                            PageImages page = new PageImages(end);
+                            for (Change c : l) {
+                                if (committed.contains(c.tid)) {
+                                    page.redo(c);
+                                }
+                            }
+                            for (int i = l.size() - 1; i >= 0; i--) {
+                                if (!committed.contains(l.get(i).tid)) {
+                                    page.undo(l.get(i));
+                                }
+                            }
+                            page.restore();
+                        }
+                        return null;
+                    }
+                }));
             }
-         }
+            for (Future<Void> f : done) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while recovering");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
     }
 
     /** Print out a human readable represenation of the log */
@@ -503,8 +1313,22 @@ public class LogFile {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Write out the log buffer and force the log file to disk. */
+    public void force() throws IOException {
+        appendLock.readLock().lock();
+        try {
+            long target = nextLsn.get();
+            flush(target);
+            forceCount.incrementAndGet();
+            segments.force();
+            synchronized (flushLock) {
+                if (target > forcedLsn) {
+                    forcedLsn = target;
+                }
+            }
+        } finally {
+            appendLock.readLock().unlock();
+        }
     }
 
 }
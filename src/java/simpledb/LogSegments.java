@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * LogSegments stores the bytes of a LogFile in segment files of a fixed
+ * size, addressed by a global LSN that keeps growing across segments.  The
+ * byte with LSN x is at offset x % segmentBytes of segment number
+ * x / segmentBytes, which is the file named after the log file followed by
+ * the segment number.  A record may span two segments.
+ * <p>
+ * The log file itself is a small header holding the LSN of the last
+ * checkpoint and the LSN the log starts at.  Truncating the log moves the
+ * start forward and deletes the segments that lie entirely before it, so
+ * no record is ever copied and LSNs stay valid.
+ *
+ * @see LogFile
+ */
+class LogSegments {
+
+    /** Default size of a segment file, in bytes */
+    static final long DEFAULT_SEGMENT_BYTES = 16L << 20;
+
+    private final File headerFile;
+    private final long segmentBytes;
+    private long checkpointLsn = LogFile.NO_CHECKPOINT_ID; //protected by this
+    private long startLsn = 0; //protected by this
+    // the segments opened so far, by number //protected by this
+    private final TreeMap<Long,FileChannel> open = new TreeMap<Long,FileChannel>();
+    // the segments written since the last force //protected by this
+    private final TreeSet<Long> unforced = new TreeSet<Long>();
+
+    /**
+     * Opens the segments of a log, reading its header if there is one.
+     *
+     * @param headerFile the log file, which holds the header
+     * @param segmentBytes the size of a segment file
+     */
+    LogSegments(File headerFile, long segmentBytes) throws IOException {
+        this.headerFile = headerFile;
+        this.segmentBytes = segmentBytes;
+        if (headerFile.length() >= 2 * LogFile.LONG_SIZE) {
+            DataInputStream in = new DataInputStream(new FileInputStream(headerFile));
+            try {
+                checkpointLsn = in.readLong();
+                startLsn = in.readLong();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /** Returns the LSN of the last checkpoint, or -1 if there is none */
+    synchronized long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    /** Returns the LSN of the first record in the log */
+    synchronized long getStartLsn() {
+        return startLsn;
+    }
+
+    /** Record the LSN of the last checkpoint in the header, unless a later
+        checkpoint has been recorded already */
+    synchronized void setCheckpointLsn(long lsn) throws IOException {
+        if (lsn <= checkpointLsn) {
+            return;
+        }
+        checkpointLsn = lsn;
+        writeHeader();
+    }
+
+    /**
+     * Drop the log before the specified LSN, which must be the start of a
+     * record: the header moves the start of the log there and the segments
+     * that end before it are deleted.
+     */
+    synchronized void truncate(long lsn) throws IOException {
+        startLsn = lsn;
+        writeHeader();
+        for (long seg : segmentNumbers()) {
+            if ((seg + 1) * segmentBytes <= lsn) {
+                delete(seg);
+            }
+        }
+    }
+
+    /**
+     * Delete every segment and start an empty log where the old one ended.
+     * LSNs keep growing, so that the page LSNs left in the tables by the
+     * old log stay older than the records of the new one.
+     */
+    synchronized void reset() throws IOException {
+        long end = startLsn;
+        for (long seg : segmentNumbers()) {
+            end = Math.max(end, seg * segmentBytes + segmentFile(seg).length());
+            delete(seg);
+        }
+        checkpointLsn = LogFile.NO_CHECKPOINT_ID;
+        startLsn = end;
+        writeHeader();
+    }
+
+    /**
+     * Drop everything from the specified LSN on, such as a record that
+     * was cut short by a crash.
+     */
+    synchronized void cutAt(long lsn) throws IOException {
+        long last = lsn / segmentBytes;
+        for (long seg : segmentNumbers()) {
+            if (seg > last) {
+                delete(seg);
+            } else if (seg == last) {
+                channel(seg, true).truncate(lsn % segmentBytes);
+            }
+        }
+    }
+
+    /**
+     * Write the remaining bytes of src to the log, starting at the
+     * specified LSN.
+     */
+    void write(ByteBuffer src, long lsn) throws IOException {
+        while (src.hasRemaining()) {
+            long seg = lsn / segmentBytes;
+            long off = lsn % segmentBytes;
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + (int)Math.min(part.remaining(), segmentBytes - off));
+            FileChannel ch;
+            synchronized (this) {
+                ch = channel(seg, true);
+                unforced.add(seg);
+            }
+            while (part.hasRemaining()) {
+                off += ch.write(part, off);
+            }
+            lsn += part.position() - src.position();
+            src.position(part.position());
+        }
+    }
+
+    /** Force the segments written since the last force to disk */
+    void force() throws IOException {
+        ArrayList<FileChannel> channels = new ArrayList<FileChannel>();
+        synchronized (this) {
+            for (long seg : unforced) {
+                channels.add(open.get(seg));
+            }
+            unforced.clear();
+        }
+        // outside the lock, so that the log writer can go on writing
+        for (FileChannel ch : channels) {
+            ch.force(true);
+        }
+    }
+
+    /** Close the segment files */
+    synchronized void close() throws IOException {
+        for (FileChannel ch : open.values()) {
+            ch.close();
+        }
+        open.clear();
+        unforced.clear();
+    }
+
+    /** Returns an input reading the log from the specified LSN on */
+    Input open(long lsn) {
+        return new Input(new SegmentStream(lsn));
+    }
+
+    /**
+     * Reads the log across segments.  Reading past the last byte written
+     * to the segment files throws EOFException.
+     */
+    class Input extends DataInputStream {
+        private Input(SegmentStream s) {
+            super(s);
+        }
+
+        /** Returns the LSN of the next byte read */
+        long getFilePointer() {
+            return ((SegmentStream)in).position;
+        }
+
+        /** Continue reading at the specified LSN */
+        void seek(long lsn) {
+            ((SegmentStream)in).position = lsn;
+        }
+    }
+
+    private class SegmentStream extends InputStream {
+        long position;
+        private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        private long bufLsn = -1; // LSN of the first byte in buf
+
+        SegmentStream(long lsn) {
+            position = lsn;
+            buf.limit(0);
+        }
+
+        // make buf hold the byte at position; false at the end of the log
+        private boolean fill() throws IOException {
+            if (bufLsn != -1 && position >= bufLsn && position < bufLsn + buf.limit()) {
+                return true;
+            }
+            long seg = position / segmentBytes;
+            long off = position % segmentBytes;
+            FileChannel ch;
+            synchronized (LogSegments.this) {
+                ch = channel(seg, false);
+            }
+            bufLsn = position;
+            buf.clear();
+            buf.limit((int)Math.min(buf.capacity(), segmentBytes - off));
+            int n = ch == null ? -1 : ch.read(buf, off);
+            buf.flip();
+            return n > 0;
+        }
+
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buf.get((int)(position++ - bufLsn)) & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int from = (int)(position - bufLsn);
+            int n = Math.min(len, buf.limit() - from);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = buf.get(from + i);
+            }
+            position += n;
+            return n;
+        }
+
+        public long skip(long n) {
+            position += n;
+            return n;
+        }
+    }
+
+    // the channel of a segment, opening it if needed; null if it does not
+    // exist and create is false.  Must be called with the lock on this held.
+    private FileChannel channel(long seg, boolean create) throws IOException {
+        FileChannel ch = open.get(seg);
+        if (ch == null) {
+            File f = segmentFile(seg);
+            if (!create && !f.exists()) {
+                return null;
+            }
+            ch = new RandomAccessFile(f, "rw").getChannel();
+            open.put(seg, ch);
+        }
+        return ch;
+    }
+
+    private File segmentFile(long seg) {
+        return new File(headerFile.getAbsoluteFile().getParentFile(),
+                String.format("%s.%08d", headerFile.getName(), seg));
+    }
+
+    // the numbers of the segment files on disk, in order
+    private ArrayList<Long> segmentNumbers() {
+        final String prefix = headerFile.getName() + ".";
+        ArrayList<Long> segs = new ArrayList<Long>();
+        File[] files = headerFile.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+");
+            }
+        });
+        if (files != null) {
+            for (File f : files) {
+                segs.add(Long.parseLong(f.getName().substring(prefix.length())));
+            }
+        }
+        Collections.sort(segs);
+        return segs;
+    }
+
+    private void delete(long seg) throws IOException {
+        FileChannel ch = open.remove(seg);
+        if (ch != null) {
+            ch.close();
+        }
+        unforced.remove(seg);
+        segmentFile(seg).delete();
+    }
+
+    private void writeHeader() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(headerFile, "rw");
+        try {
+            // one write of both fields, in place
+            ByteBuffer header = ByteBuffer.allocate(2 * LogFile.LONG_SIZE);
+            header.putLong(checkpointLsn).putLong(startLsn).flip();
+            raf.getChannel().write(header, 0);
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * LogWriter is the background thread of a LogFile that writes the records
+ * in the log buffer to the log file, so that the threads logging records
+ * only copy them into memory.  Writing many records at once turns the
+ * small appends of the logging threads into large sequential writes.
+ * <p>
+ * The writer drains the buffer every {@link #INTERVAL_MS} milliseconds, or
+ * sooner when it is woken up because a thread waits for its records to be
+ * written or the buffer is half full.  A writer that has had nothing to
+ * write for {@link #IDLE_ROUNDS} rounds stops; the log starts a new one when
+ * there is work again.
+ *
+ * @see LogFile#writeBuffered()
+ */
+class LogWriter extends BackgroundThread {
+
+    /** Time between two rounds of the writer. */
+    static final long INTERVAL_MS = 10;
+    /** Number of rounds without work after which the writer stops. */
+    static final int IDLE_ROUNDS = 100;
+
+    private final LogFile log;
+
+    LogWriter(LogFile log) {
+        super("LogFile writer", INTERVAL_MS, IDLE_ROUNDS);
+        this.log = log;
+    }
+
+    long runRound() throws IOException {
+        return log.writeBuffered();
+    }
+
+    void roundFailed(IOException e) {
+        log.writerFailed(e);
+    }
+}
@@ -323,10 +323,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = Parser.parseConstant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -416,14 +413,13 @@ public class LogicalPlan {
             if (si.aggOp != null) {
                 outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outTypes.add(Aggregate.resultType(td.getFieldType(id), getAggOp(si.aggOp)));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  The policy remembers the
+ * times of the last K references to every cached page and evicts the page
+ * whose K-th most recent reference is the oldest.  Pages referenced fewer
+ * than K times are evicted first, in LRU order, so a page touched once by a
+ * scan cannot push out a page that is used over and over.
+ * <p>
+ * The history of evicted pages is retained for a while, so a page that is
+ * re-read soon after its eviction keeps its earlier references.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    /** history[frame][i] is the time of the (i+1)-th most recent reference, 0 if none */
+    private final long[][] history;
+    private final PageId[] frameIds;
+    private final LinkedHashMap<PageId, long[]> retained;
+    private long clock;
+
+    public LruKPolicy(final int numFrames, int k) {
+        this.k = k;
+        history = new long[numFrames][k];
+        frameIds = new PageId[numFrames];
+        retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > numFrames;
+            }
+        };
+        clock = 0;
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        long[] old = retained.remove(pid);
+        if (old != null) {
+            System.arraycopy(old, 0, history[frame], 0, k);
+        } else {
+            Arrays.fill(history[frame], 0);
+        }
+        frameIds[frame] = pid;
+        reference(frame);
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        if (frameIds[frame] != null) {
+            reference(frame);
+        }
+    }
+
+    public synchronized void pageRemoved(int frame) {
+        if (frameIds[frame] != null) {
+            retained.put(frameIds[frame], history[frame].clone());
+            frameIds[frame] = null;
+        }
+    }
+
+    public synchronized int chooseVictim(IntPredicate evictable) {
+        int victim = -1;
+        for (int frame = 0; frame < frameIds.length; frame++) {
+            if (frameIds[frame] == null || !evictable.test(frame)) {
+                continue;
+            }
+            if (victim == -1 || older(frame, victim)) {
+                victim = frame;
+            }
+        }
+        return victim;
+    }
+
+    private void reference(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+    }
+
+    /** true if frame a has a larger backward K-distance than frame b */
+    private boolean older(int a, int b) {
+        long ka = history[a][k - 1], kb = history[b][k - 1];
+        if (ka != kb) {
+            return ka < kb;
+        }
+        return history[a][0] < history[b][0];
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFile gives read-only access to the pages of a table file through
+ * memory mappings of the file.  Pages are returned as read-only slices of the
+ * mapping, so building a page does not copy its bytes and repeated reads are
+ * served from the OS page cache.
+ * <p>
+ * The file is mapped in segments of {@link #SEGMENT_SIZE} bytes, each
+ * extended by one page so that a page starting in a segment always lies
+ * entirely within it.  Segments are mapped when they are first read.  The
+ * mapping covers the file as it was when the MappedFile was created; it is
+ * meant for tables that are no longer modified.
+ *
+ * @see Catalog#addTable(DbFile, String, String, boolean)
+ */
+class MappedFile {
+
+    /** Bytes covered by one mapping, not counting the extra page. */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long length;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * @param channel the open channel of the table file
+     */
+    MappedFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        this.segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+    }
+
+    /**
+     * Returns a read-only view of len bytes of the file.
+     *
+     * @param offset the offset of the first byte in the file
+     * @param len the number of bytes, at most one page
+     * @return the bytes, or null if they do not lie entirely within the file
+     */
+    ByteBuffer slice(long offset, int len) throws IOException {
+        if (offset < 0 || offset + len > length) {
+            return null;
+        }
+        int seg = (int) (offset / SEGMENT_SIZE);
+        ByteBuffer b = segment(seg).duplicate();
+        int pos = (int) (offset - seg * SEGMENT_SIZE);
+        b.position(pos);
+        b.limit(pos + len);
+        return b.slice();
+    }
+
+    private synchronized MappedByteBuffer segment(int seg) throws IOException {
+        if (segments[seg] == null) {
+            long start = seg * SEGMENT_SIZE;
+            long size = Math.min(length - start, SEGMENT_SIZE + BufferPool.getPageSize());
+            segments[seg] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        return segments[seg];
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DateFields
+ * or DoubleFields.  Sums are kept in a long, or a double for DOUBLE_TYPE.
+ * SUM of a LONG_TYPE or DATE_TYPE field is a LONG_TYPE and COUNT an
+ * INT_TYPE; every other aggregate is of the type of the field.
+ *
+ * @see Aggregate#resultType
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int gbfield, afield;
+    private final Type gbfieldtype, afieldtype;
+    private final Op what;
+    private final Map<Field, Group> groups;
+
+    /** The running aggregates of a group */
+    private static class Group {
+        int count;
+        long sum, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        double dsum, dmin = Double.POSITIVE_INFINITY, dmax = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field: LONG_TYPE, DATE_TYPE or
+     *            DOUBLE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if the type or the operator is not
+     *            supported
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DATE_TYPE
+                && afieldtype != Type.DOUBLE_TYPE) {
+            throw new IllegalArgumentException("no numeric aggregate of " + afieldtype);
+        }
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG) {
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+        this.groups = new LinkedHashMap<Field, Group>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        Group g = groups.get(key);
+        if (g == null) {
+            g = new Group();
+            groups.put(key, g);
+        }
+        g.count++;
+        Field f = tup.getField(afield);
+        if (afieldtype == Type.DOUBLE_TYPE) {
+            double v = ((DoubleField) f).getValue();
+            g.dsum += v;
+            g.dmin = Math.min(g.dmin, v);
+            g.dmax = Math.max(g.dmax, v);
+        } else {
+            long v = ((LongField) f).getValue();
+            g.sum += v;
+            g.min = Math.min(g.min, v);
+            g.max = Math.max(g.max, v);
+        }
+    }
+
+    private Field result(Group g) {
+        if (what == Op.COUNT) {
+            return new IntField(g.count);
+        }
+        if (afieldtype == Type.DOUBLE_TYPE) {
+            switch (what) {
+            case MIN:
+                return new DoubleField(g.dmin);
+            case MAX:
+                return new DoubleField(g.dmax);
+            case SUM:
+                return new DoubleField(g.dsum);
+            default:
+                return new DoubleField(g.dsum / g.count);
+            }
+        }
+        switch (what) {
+        case MIN:
+            return field(g.min);
+        case MAX:
+            return field(g.max);
+        case SUM:
+            return new LongField(g.sum);
+        default:
+            return field(g.sum / g.count);
+        }
+    }
+
+    // a value of the type of the aggregate field
+    private Field field(long v) {
+        return afieldtype == Type.DATE_TYPE ? new DateField(v) : new LongField(v);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        TupleDesc td;
+        Type resultType = Aggregate.resultType(afieldtype, what);
+        if (gbfield != NO_GROUPING) {
+            td = new TupleDesc(new Type[] { gbfieldtype, resultType });
+        } else {
+            td = new TupleDesc(new Type[] { resultType });
+        }
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (Map.Entry<Field, Group> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            if (gbfield != NO_GROUPING) {
+                t.setField(0, e.getKey());
+                t.setField(1, result(e.getValue()));
+            } else {
+                t.setField(0, result(e.getValue()));
+            }
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+}
@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -9,9 +12,61 @@ package simpledb;
  *
  * For recovery purposes, pages MUST have a single constructor of the form:
  *     Page(PageId id, byte[] data)
+ * <p>
+ * Pages that keep a page LSN store it in the first LSN_SIZE bytes of their
+ * data, as written by {@link #encodeLSN}: the top 16 bits hold
+ * FORMAT_MARK and the other 48 bits the LSN.  Tables written before pages
+ * had an LSN have no mark there; {@link #decodeLSN} refuses their pages,
+ * and such tables have to be converted again (see HeapFileEncoder and
+ * BTreeFileEncoder).  A page that is all zeroes, as new pages are, has no
+ * mark either and is read as an empty page with LSN 0.
  */
 public interface Page {
 
+    /** The size in bytes of the page LSN at the start of a page */
+    public static final int LSN_SIZE = 8;
+
+    /** The top 16 bits of the page LSN field of the current page format */
+    public static final long FORMAT_MARK = 0xDB01L << 48;
+
+    /** The bits of the page LSN field that hold the LSN */
+    public static final long LSN_MASK = (1L << 48) - 1;
+
+    /**
+     * Returns the page LSN field to write at the start of a page.
+     *
+     * @param lsn the page LSN, which must fit in 48 bits
+     */
+    public static long encodeLSN(long lsn) {
+        if ((lsn & ~LSN_MASK) != 0) {
+            throw new IllegalArgumentException("page LSN " + lsn + " does not fit in 48 bits");
+        }
+        return FORMAT_MARK | lsn;
+    }
+
+    /**
+     * Returns the page LSN held by the page LSN field at the start of a
+     * page.
+     *
+     * @param pid the id of the page, for the error message
+     * @param field the first LSN_SIZE bytes of the page
+     * @param data the data of the page, between its position and limit
+     * @throws IOException if the page was not written in the current
+     *     format
+     */
+    public static long decodeLSN(PageId pid, long field, ByteBuffer data) throws IOException {
+        if ((field & ~LSN_MASK) == FORMAT_MARK) {
+            return field & LSN_MASK;
+        }
+        for (int i = data.position(); i < data.limit(); i++) {
+            if (data.get(i) != 0) {
+                throw new IOException("page " + pid + " was written in an older format"
+                        + " without a page LSN; convert the table again");
+            }
+        }
+        return 0;
+    }
+
     /**
      * Return the id of this page.  The id is a unique identifier for a page
      * that can be used to look up the page on disk or determine if the page
@@ -56,4 +111,17 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Returns the page LSN: the LSN of the last log record whose change
+     * this page holds, or 0 if that is not known.  Recovery does not redo
+     * the changes logged at or before the page LSN of a page on disk.
+     */
+    public long getLSN();
+
+    /**
+     * Set the page LSN, after logging a change of this page.  Pages that
+     * do not keep a page LSN ignore it.
+     */
+    public void setLSN(long lsn);
 }
@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * PageCleaner is the background thread of a BufferPool that writes pages
+ * holding committed changes to disk, so that transactions do not wait for
+ * their pages to be written when they commit and evictions usually find a
+ * victim that can simply be dropped.
+ * <p>
+ * The cleaner runs a round every {@link #INTERVAL_MS} milliseconds, or
+ * sooner when the pool wakes it up because a transaction committed or an
+ * eviction had to write a page itself.  A cleaner that has had nothing to do
+ * for {@link #IDLE_ROUNDS} rounds stops; the pool starts a new one when
+ * there is work again.
+ *
+ * @see BufferPool#cleanPages()
+ */
+class PageCleaner extends BackgroundThread {
+
+    /** Time between two rounds of the cleaner. */
+    static final long INTERVAL_MS = 50;
+    /** Number of rounds without work after which the cleaner stops. */
+    static final int IDLE_ROUNDS = 20;
+
+    private final BufferPool pool;
+
+    PageCleaner(BufferPool pool) {
+        super("BufferPool page cleaner", INTERVAL_MS, IDLE_ROUNDS);
+        this.pool = pool;
+    }
+
+    long runRound() {
+        return pool.cleanPages();
+    }
+}
@@ -35,6 +35,16 @@ public class Parser {
         throw new simpledb.ParsingException("Unknown predicate " + s);
     }
 
+    /** Returns the field of the specified type written in a constant */
+    static Field parseConstant(Type type, String s) throws simpledb.ParsingException {
+        try {
+            return type.parse(s);
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException("Value " + s
+                    + " is not a valid " + type + ".");
+        }
+    }
+
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException {
         if (wx.getOperator().equals("AND")) {
@@ -356,23 +366,23 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type type = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (type != Type.INT_TYPE && type != Type.LONG_TYPE
+                            && type != Type.DOUBLE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected " + type + ".");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
+                    t.setField(i, parseConstant(type, zc.getValue()));
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (type != Type.STRING_TYPE && type != Type.VARCHAR_TYPE
+                            && type != Type.DATE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected " + type + ".");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
+                    t.setField(i, parseConstant(type, zc.getValue()));
                 } else {
                     throw new simpledb.ParsingException(
                             "Only string or int fields are supported.");
@@ -598,7 +608,31 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    /**
+     * Abort the open transaction, if any, write the pages of committed
+     * transactions that the buffer pool has not written yet and close the
+     * log, so that the next start does not have to recover them.  Commits
+     * do not force their pages to disk, so every normal exit must come
+     * through here.
+     */
     protected void shutdown() {
+        if (curtrans != null) {
+            try {
+                curtrans.abort();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            curtrans = null;
+            inUserTrans = false;
+        }
+        try {
+            Database.getBufferPool().shutdown();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Database.getLogFile().shutdown();
+        // forces the free-space maps of the tables
+        Database.getCatalog().clear();
         System.out.println("Bye");
     }
 
@@ -607,6 +641,11 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // the last run did not shut down cleanly
+        if (Database.getLogFile().needsRecovery()) {
+            System.out.println("Recovering from the log...");
+            Database.getLogFile().recover();
+        }
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -648,10 +687,11 @@ public class Parser {
                         ((double) time / 1000.0));
                 System.out.println("Press Enter to exit");
                 System.in.read();
-                this.shutdown();
             } catch (FileNotFoundException e) {
                 System.out.println("Unable to find query file" + queryFile);
                 e.printStackTrace();
+            } finally {
+                this.shutdown();
             }
         } else { // no query file, run interactive prompt
             ConsoleReader reader = new ConsoleReader();
@@ -677,7 +717,6 @@ public class Parser {
                     byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
-                        shutdown();
                         quit = true;
                         break;
                     }
@@ -698,6 +737,8 @@ public class Parser {
                     buffer.append("\n");
                 }
             }
+            // on quit, exit or the end of the input
+            shutdown();
         }
     }
 }
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -11,6 +13,10 @@ public class Predicate implements Serializable {
     private int field;
     private Field operand;
     private Op op;
+    // the comparison for the type of the operand and op, and a tuple
+    // holding the operand for it to read
+    private transient FieldComparison comparison;
+    private transient Tuple operandTuple;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -62,6 +68,19 @@ public class Predicate implements Serializable {
     	this.field = field;
     	this.op = op;
     	this.operand = operand;
+    	prepare();
+    }
+
+    // choose the comparison for the operand and op
+    private void prepare() {
+    	comparison = FieldComparison.of(operand.getType(), op);
+    	operandTuple = new Tuple(new TupleDesc(new Type[] { operand.getType() }));
+    	operandTuple.setField(0, operand);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    	in.defaultReadObject();
+    	prepare();
     }
 
     /**
@@ -94,8 +113,9 @@ public class Predicate implements Serializable {
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
-     * the constructor. The comparison can be made through Field's compare
-     * method.
+     * the constructor. The comparison has the meaning of Field's compare
+     * method, but is made by a FieldComparison chosen when the predicate was
+     * created, which reads the field without decoding it.
      * 
      * @param t
      *            The tuple to compare against
@@ -103,7 +123,7 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(field).compare(op, operand);
+        return comparison.test(t, field, operandTuple, 0);
     }
 
     /**
@@ -11,6 +11,8 @@ public class Project extends Operator {
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    // outFieldIds, for the projected tuples to read their fields through
+    private int[] fieldIds;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -33,9 +35,11 @@ public class Project extends Operator {
         this.child = child;
         outFieldIds = fieldList;
         String[] fieldAr = new String[fieldList.size()];
+        fieldIds = new int[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
         for (int i = 0; i < fieldAr.length; i++) {
+            fieldIds[i] = fieldList.get(i);
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
@@ -70,12 +74,7 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+            return Tuple.project(td, t, fieldIds);
         }
         return null;
     }
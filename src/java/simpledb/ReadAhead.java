@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * ReadAhead keeps up to a fixed number of pages in flight ahead of a scan
+ * cursor.  The pages are read by the BufferPool's I/O threads and handed to
+ * the pool when the scan asks for them, so reading the next pages overlaps
+ * with processing the current one.  A heap file scan requests the pages
+ * following the cursor in page order; a B+ tree scan follows the right
+ * sibling pointers of the leaf pages.
+ * <p>
+ * ReadAhead also records how long the scan was open and how much of that
+ * time it spent waiting for pages to come in from disk.  A ReadAhead belongs
+ * to a single scan and is not thread safe.
+ *
+ * @see BufferPool#prefetchPage(PageId)
+ */
+public class ReadAhead {
+
+    /** Number of pages kept in flight when the scan does not specify it. */
+    public static final int DEFAULT_DEPTH = 4;
+
+    private final int depth;
+    /** pages requested ahead of the cursor that the scan has not read yet */
+    private final LinkedHashSet<PageId> requested = new LinkedHashSet<PageId>();
+
+    private long openedAt = 0;
+    private long elapsedNanos = 0;
+    private long ioWaitNanos = 0;
+    private int pagesRead = 0;
+
+    /**
+     * @param depth the number of pages to keep in flight ahead of the scan;
+     *     0 disables read-ahead
+     */
+    public ReadAhead(int depth) {
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return the total time the scan has been open, in nanoseconds */
+    public long getElapsedNanos() {
+        if (openedAt != 0) {
+            return elapsedNanos + System.nanoTime() - openedAt;
+        }
+        return elapsedNanos;
+    }
+
+    /** @return the time the scan spent waiting for pages to be read, in nanoseconds */
+    public long getIoWaitNanos() {
+        return ioWaitNanos;
+    }
+
+    /** @return the number of pages the scan had to wait for */
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
+    /** Called when the scan is opened. */
+    void start() {
+        openedAt = System.nanoTime();
+    }
+
+    /** Called when the scan is closed: drops the pages it will not read. */
+    void finish() {
+        for (PageId pid : requested) {
+            Database.getBufferPool().cancelPrefetch(pid);
+        }
+        requested.clear();
+        if (openedAt != 0) {
+            elapsedNanos += System.nanoTime() - openedAt;
+            openedAt = 0;
+            Debug.log(1, "ReadAhead: read %d pages, waited %d of %d ms on I/O",
+                    pagesRead, ioWaitNanos / 1000000, elapsedNanos / 1000000);
+        }
+    }
+
+    /**
+     * Fetch a page for the scan with READ_ONLY permission, waiting for the
+     * read started earlier if there is one, or starting it now otherwise.
+     * The page is pinned; the scan unpins it when it moves on to the next
+     * page or is closed.
+     *
+     * @param tid the scanning transaction
+     * @param pid the page the cursor moves to
+     * @param ring the scan's ring of frames, or null
+     */
+    Page fetch(TransactionId tid, PageId pid, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        BufferPool bp = Database.getBufferPool();
+        requested.remove(pid);
+        Future<Page> f = bp.prefetchPage(pid);
+        if (f != null) {
+            long start = System.nanoTime();
+            await(f);
+            ioWaitNanos += System.nanoTime() - start;
+            pagesRead++;
+        }
+        return bp.pinPage(tid, pid, Permissions.READ_ONLY, ring);
+    }
+
+    /** Request a page the cursor will reach later, unless depth pages are already in flight. */
+    void prefetch(PageId pid) {
+        if (requested.size() >= depth || requested.contains(pid)) {
+            return;
+        }
+        if (Database.getBufferPool().prefetchPage(pid) != null) {
+            requested.add(pid);
+        }
+    }
+
+    /**
+     * Request the leaf pages to the right of the given one.  Since the id of
+     * a sibling is only known once the page before it has been read, the
+     * chain is extended as far as the reads issued so far have completed;
+     * the next call picks up where this one stopped.
+     */
+    void prefetchSiblings(BTreeLeafPage leaf) {
+        BTreePageId next = leaf.getRightSiblingId();
+        while (next != null && requested.size() < depth) {
+            Future<Page> f = Database.getBufferPool().prefetchPage(next);
+            if (f == null) {
+                // already cached; the chain continues once the scan gets there
+                return;
+            }
+            requested.add(next);
+            if (!f.isDone()) {
+                return;
+            }
+            Page p = await(f);
+            if (!(p instanceof BTreeLeafPage)) {
+                return;
+            }
+            next = ((BTreeLeafPage) p).getRightSiblingId();
+        }
+    }
+
+    /**
+     * Wait for a read to finish.  Failed reads are not reported here; the
+     * BufferPool reads the page again and reports the error to the scan.
+     */
+    private static Page await(Future<Page> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+        } catch (CancellationException e) {
+        }
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * RecordDirectory lays out the tuples of a page of a table whose tuples
+ * are not of fixed size (see {@link TupleDesc#isFixedSize}), for HeapPage
+ * and BTreeLeafPage.  Such a page is slotted: after whatever the page keeps
+ * before its tuples come the number of records, as two bytes, and a
+ * directory with an entry for each record that holds its slot number and
+ * its length as unsigned two-byte numbers, in slot order.  The records are
+ * packed at the end of the page in the order of the directory, each holding
+ * a tuple in the form written by {@link Type#serializeCompact}, and the
+ * bytes between the directory and the records are free.  An empty slot has
+ * no entry and takes no space, so a page holds as many tuples as their
+ * actual sizes allow.
+ * <p>
+ * A page writes the whole area each time it is written, so records never
+ * move in place and there are no holes between them.  The two-byte numbers
+ * limit such pages to 64KB.
+ */
+final class RecordDirectory {
+
+    /** Size of the number of records */
+    static final int COUNT_SIZE = 2;
+    /** Size of the directory entry of a record */
+    static final int ENTRY_SIZE = 4;
+
+    private RecordDirectory() {
+    }
+
+    /**
+     * Returns the number of slots of a page that keeps bytes bytes for
+     * the area: as many as there can be records of the smallest size.
+     */
+    static int numSlots(TupleDesc td, int bytes) {
+        return (bytes - COUNT_SIZE) / (ENTRY_SIZE + td.getMinSize());
+    }
+
+    /**
+     * Returns the number of bytes of the area taken by records of the
+     * specified total length.
+     */
+    static int usedBytes(int numRecords, int recordBytes) {
+        return COUNT_SIZE + numRecords * ENTRY_SIZE + recordBytes;
+    }
+
+    /**
+     * Reads the directory of the area that starts at an absolute index of
+     * a page and ends with the page, setting the index in data and the
+     * length of the record of each slot that has one.
+     *
+     * @param data the page
+     * @param start the index of the area
+     * @param end the index of the end of the page
+     * @param offsets set to the index of the record of each slot
+     * @param lengths set to the length of the record of each slot, or 0 if
+     *     the slot is empty; one entry for each slot of the page
+     * @throws IOException if the directory does not describe records that
+     *     fit the page
+     */
+    static void read(ByteBuffer data, int start, int end, int[] offsets, int[] lengths)
+            throws IOException {
+        int n = data.getShort(start) & 0xffff;
+        int total = 0;
+        int prev = -1;
+        for (int i = 0; i < n; i++) {
+            int entry = start + COUNT_SIZE + i * ENTRY_SIZE;
+            int slot = data.getShort(entry) & 0xffff;
+            if (slot <= prev || slot >= lengths.length) {
+                throw new IOException("bad slot " + slot + " in record directory");
+            }
+            lengths[slot] = data.getShort(entry + 2) & 0xffff;
+            total += lengths[slot];
+            prev = slot;
+        }
+        int offset = end - total;
+        if (offset < start + COUNT_SIZE + n * ENTRY_SIZE) {
+            throw new IOException("records do not fit the page");
+        }
+        for (int slot = 0; slot < lengths.length; slot++) {
+            if (lengths[slot] > 0) {
+                offsets[slot] = offset;
+                offset += lengths[slot];
+            }
+        }
+    }
+
+    /**
+     * Writes the area, which must fit the page, from the index start to
+     * the end of the page, which must be all zeros.
+     *
+     * @param page the page
+     * @param start the index of the area
+     * @param records the record of each slot, or null if the slot is empty
+     */
+    static void write(byte[] page, int start, byte[][] records) {
+        ByteBuffer b = ByteBuffer.wrap(page);
+        int n = 0;
+        int total = 0;
+        for (byte[] r : records) {
+            if (r != null) {
+                n++;
+                total += r.length;
+            }
+        }
+        b.putShort(start, (short) n);
+        int entry = start + COUNT_SIZE;
+        int offset = page.length - total;
+        for (int slot = 0; slot < records.length; slot++) {
+            byte[] r = records[slot];
+            if (r == null) {
+                continue;
+            }
+            b.putShort(entry, (short) slot);
+            b.putShort(entry + 2, (short) r.length);
+            entry += ENTRY_SIZE;
+            System.arraycopy(r, 0, page, offset, r.length);
+            offset += r.length;
+        }
+    }
+
+    /** Returns the record holding a tuple */
+    static byte[] toRecord(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                td.getFieldType(j).serializeCompact(t.getField(j), dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** Returns the tuple held by the record at an absolute index of a page */
+    static Tuple fromRecord(TupleDesc td, ByteBuffer data, int offset) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(data, offset + td.getOffset(j, data, offset)));
+        }
+        return t;
+    }
+}
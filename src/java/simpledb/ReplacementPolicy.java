@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+/**
+ * ReplacementPolicy decides which BufferPool frame to evict when the pool is
+ * full.  The BufferPool numbers its frames 0..numFrames-1 and reports every
+ * load, hit and removal to the policy, which keeps whatever reference history
+ * it needs.
+ * <p>
+ * pageAccessed() may be called concurrently with the other methods;
+ * pageLoaded(), pageRemoved() and chooseVictim() are always called while the
+ * BufferPool holds the lock on the frames involved.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** The replacement policies a BufferPool can be constructed with. */
+    public enum Kind {
+        CLOCK, LRU_K, TWO_Q;
+
+        /**
+         * Create a new policy of this kind that manages the given number of
+         * frames.
+         */
+        public ReplacementPolicy create(int numFrames) {
+            switch (this) {
+            case LRU_K:
+                return new LruKPolicy(numFrames, LruKPolicy.DEFAULT_K);
+            case TWO_Q:
+                return new TwoQueuePolicy(numFrames);
+            default:
+                return new ClockPolicy(numFrames);
+            }
+        }
+    }
+
+    /**
+     * A page was read into the specified (previously empty) frame.
+     *
+     * @param frame the frame now holding the page
+     * @param pid the id of the page that was loaded
+     */
+    public void pageLoaded(int frame, PageId pid);
+
+    /** The page held in the specified frame was requested again. */
+    public void pageAccessed(int frame);
+
+    /** The page held in the specified frame was evicted or discarded. */
+    public void pageRemoved(int frame);
+
+    /**
+     * Choose a frame to evict.
+     *
+     * @param evictable tells whether the page in a frame may be evicted right
+     *     now (e.g. it is not dirty)
+     * @return the frame to evict, or -1 if no frame is evictable
+     */
+    public int chooseVictim(IntPredicate evictable);
+}
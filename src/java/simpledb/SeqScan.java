@@ -13,6 +13,7 @@ public class SeqScan implements OpIterator {
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    private ReadAhead readAhead;
     
     private DbFileIterator it;
     /**
@@ -33,9 +34,35 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+    	this(tid, tableid, tableAlias, ReadAhead.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates a sequential scan that keeps the given number of pages in
+     * flight ahead of the page being read.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param prefetchDepth
+     *            the number of pages to read ahead; 0 disables read-ahead
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int prefetchDepth) {
     	this.tid = tid;
     	this.tableid = tableid;
     	this.tableAlias = tableAlias;
+    	this.readAhead = new ReadAhead(prefetchDepth);
+    }
+
+    /**
+     * @return the read-ahead state of this scan, including the time it spent
+     *       waiting for I/O
+     */
+    public ReadAhead getReadAhead() {
+    	return readAhead;
     }
 
     /**
@@ -96,7 +123,14 @@ public class SeqScan implements OpIterator {
     
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-    	it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+    	DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+    	if (f instanceof HeapFile) {
+    		it = ((HeapFile) f).iterator(tid, readAhead);
+    	} else if (f instanceof BTreeFile) {
+    		it = ((BTreeFile) f).iterator(tid, readAhead);
+    	} else {
+    		it = f.iterator(tid);
+    	}
     	it.open();
     }
 
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * SlotDelta is the difference between two versions of a SlottedPage, as
+ * the tuples inserted into and deleted from its slots.  A tuple replaced by
+ * another one is a delete followed by an insert.  The log writes a delta
+ * instead of the before and after images of a page that changed only in its
+ * slots, which takes a few dozen bytes for a single insert rather than two
+ * pages.
+ * <p>
+ * Redoing or undoing a delta sets the slots it lists to their new or old
+ * contents, so it may be applied to a page that already has them.
+ */
+public class SlotDelta {
+
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+
+    private static class Change {
+        final byte op;
+        final int slot;
+        final byte[] tuple;
+
+        Change(byte op, int slot, byte[] tuple) {
+            this.op = op;
+            this.slot = slot;
+            this.tuple = tuple;
+        }
+    }
+
+    private final int headerOffset;
+    private final int slotsOffset;
+    private final int slotSize;
+    private final ArrayList<Change> changes = new ArrayList<Change>();
+
+    private SlotDelta(int headerOffset, int slotsOffset, int slotSize) {
+        this.headerOffset = headerOffset;
+        this.slotsOffset = slotsOffset;
+        this.slotSize = slotSize;
+    }
+
+    /**
+     * Computes the changes that turn one version of a page into another.
+     *
+     * @param before the older version of the page
+     * @param after the newer version of the page
+     * @return the delta, or null if the pages also differ outside their
+     *     slots and page LSN, their tuples are not kept in slots of a fixed
+     *     size, or the delta would not be smaller than the two images
+     */
+    public static SlotDelta diff(SlottedPage before, SlottedPage after) {
+        if (before.getSlotSize() == 0
+                || before.getClass() != after.getClass()
+                || before.getSlotsOffset() != after.getSlotsOffset()
+                || before.getSlotSize() != after.getSlotSize()) {
+            return null;
+        }
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        SlotDelta d = new SlotDelta(after.getHeaderOffset(), after.getSlotsOffset(),
+                after.getSlotSize());
+        int end = d.slotOffset(after.getNumSlots());
+        if (b.length != a.length || !equal(b, a, Page.LSN_SIZE, d.headerOffset) || !equal(b, a, end, a.length)) {
+            return null;
+        }
+        for (int i = 0; i < after.getNumSlots(); i++) {
+            boolean wasUsed = d.isUsed(b, i);
+            boolean isUsed = d.isUsed(a, i);
+            int off = d.slotOffset(i);
+            if (wasUsed == isUsed && (!isUsed || equal(b, a, off, off + d.slotSize))) {
+                continue;
+            }
+            if (wasUsed) {
+                d.changes.add(new Change(DELETE, i, Arrays.copyOfRange(b, off, off + d.slotSize)));
+            }
+            if (isUsed) {
+                d.changes.add(new Change(INSERT, i, Arrays.copyOfRange(a, off, off + d.slotSize)));
+            }
+        }
+        if (d.changes.size() * (d.slotSize + 5) >= 2 * a.length) {
+            return null;
+        }
+        return d;
+    }
+
+    /** Returns the number of inserted and deleted tuples. */
+    public int numChanges() {
+        return changes.size();
+    }
+
+    /** Applies the changes to the data of a page, in place. */
+    public void redo(byte[] data) {
+        for (Change c : changes) {
+            set(data, c.slot, c.op == INSERT ? c.tuple : null);
+        }
+    }
+
+    /** Takes the changes back from the data of a page, in place. */
+    public void undo(byte[] data) {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change c = changes.get(i);
+            set(data, c.slot, c.op == DELETE ? c.tuple : null);
+        }
+    }
+
+    /** Writes the delta in the format read by {@link #readFrom}. */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(headerOffset);
+        out.writeInt(slotsOffset);
+        out.writeInt(slotSize);
+        out.writeInt(changes.size());
+        for (Change c : changes) {
+            out.writeByte(c.op);
+            out.writeInt(c.slot);
+            out.write(c.tuple);
+        }
+    }
+
+    /** Reads a delta written by {@link #writeTo}. */
+    public static SlotDelta readFrom(DataInput in) throws IOException {
+        SlotDelta d = new SlotDelta(in.readInt(), in.readInt(), in.readInt());
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            byte op = in.readByte();
+            int slot = in.readInt();
+            byte[] tuple = new byte[d.slotSize];
+            in.readFully(tuple);
+            d.changes.add(new Change(op, slot, tuple));
+        }
+        return d;
+    }
+
+    private int slotOffset(int slot) {
+        return slotsOffset + slot * slotSize;
+    }
+
+    private boolean isUsed(byte[] data, int slot) {
+        return (data[headerOffset + slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    // fill the slot with a tuple, or empty it if tuple is null
+    private void set(byte[] data, int slot, byte[] tuple) {
+        int off = slotOffset(slot);
+        if (tuple == null) {
+            data[headerOffset + slot / 8] &= ~(1 << (slot % 8));
+            Arrays.fill(data, off, off + slotSize, (byte) 0);
+        } else {
+            data[headerOffset + slot / 8] |= 1 << (slot % 8);
+            System.arraycopy(tuple, 0, data, off, slotSize);
+        }
+    }
+
+    private static boolean equal(byte[] a, byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,36 @@
+package simpledb;
+
+/**
+ * SlottedPage is a page that stores its tuples in fixed-size slots, with a
+ * bitmap saying which slots are in use.  The log records the changes to
+ * such a page slot by slot rather than as full page images.
+ * <p>
+ * A slotted page starts with its page LSN (see {@link Page#getLSN}), which
+ * is not part of the changes of its slots.
+ *
+ * @see SlotDelta
+ */
+public interface SlottedPage extends Page {
+
+    /** Returns the number of slots on this page. */
+    public int getNumSlots();
+
+    /**
+     * Returns the offset in getPageData() of the bitmap of used slots, in
+     * which slot i is bit i % 8 of byte i / 8.
+     */
+    public int getHeaderOffset();
+
+    /**
+     * Returns the offset in getPageData() of the first slot.  The slots
+     * follow each other, and an empty slot is all zeros.
+     */
+    public int getSlotsOffset();
+
+    /**
+     * Returns the size of a slot in bytes, or 0 if the page stores tuples
+     * of variable size in records of their own length (see
+     * {@link RecordDirectory}), whose changes are logged as page images.
+     */
+    public int getSlotSize();
+}
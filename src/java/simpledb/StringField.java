@@ -45,6 +45,21 @@ public class StringField implements Field {
 		return ((StringField) field).value.equals(value);
 	}
 
+	/**
+	 * Copy the bytes of this string, as serialize writes them, into dst.
+	 * 
+	 * @param dst
+	 *            The array to copy into, which must hold maxSize bytes
+	 * @return the number of bytes copied
+	 */
+	public int getBytes(byte[] dst) {
+		int len = value.length();
+		for (int i = 0; i < len; i++) {
+			dst[i] = (byte) value.charAt(i);
+		}
+		return len;
+	}
+
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
@@ -70,6 +70,7 @@ public class TableStats {
     
     private Object[] hist;
     private int[] min, max;
+    private double[] dmin, dmax;
     private int ioCostPerPage;
     private TupleDesc td;
     private int count;
@@ -99,6 +100,10 @@ public class TableStats {
     	Arrays.fill(min, Integer.MAX_VALUE);
     	max = new int[td.numFields()];
     	Arrays.fill(max, Integer.MIN_VALUE);
+    	dmin = new double[td.numFields()];
+    	Arrays.fill(dmin, Double.POSITIVE_INFINITY);
+    	dmax = new double[td.numFields()];
+    	Arrays.fill(dmax, Double.NEGATIVE_INFINITY);
     	this.ioCostPerPage = ioCostPerPage;
     	DbFileIterator it = f.iterator(new TransactionId());
     	try {
@@ -111,12 +116,18 @@ public class TableStats {
 						int v = ((IntField)t.getField(i)).getValue();
 						if (v < min[i]) min[i] = v;
 						if (v > max[i]) max[i] = v;
+					} else if (isDouble(td.getFieldType(i))) {
+						double v = doubleValue(t.getField(i));
+						if (v < dmin[i]) dmin[i] = v;
+						if (v > dmax[i]) dmax[i] = v;
 					}
 				}
 			}
 			for (int i = 0; i < td.numFields(); i++) {
 	    		if (td.getFieldType(i) == Type.INT_TYPE) {
 	    			hist[i] = new IntHistogram(NUM_HIST_BINS, min[i], max[i]);
+	    		} else if (isDouble(td.getFieldType(i))) {
+	    			hist[i] = new DoubleHistogram(NUM_HIST_BINS, dmin[i], dmax[i]);
 	    		} else {
 	    			hist[i] = new StringHistogram(NUM_HIST_BINS);
 	    		}
@@ -127,6 +138,8 @@ public class TableStats {
 				for (int i = 0; i < td.numFields(); i++) {
 					if (hist[i] instanceof IntHistogram) {
 						((IntHistogram)hist[i]).addValue(((IntField)t.getField(i)).getValue());
+					} else if (hist[i] instanceof DoubleHistogram) {
+						((DoubleHistogram)hist[i]).addValue(doubleValue(t.getField(i)));
 					} else {
 						((StringHistogram)hist[i]).addValue(((StringField)t.getField(i)).getValue());
 					}
@@ -134,6 +147,9 @@ public class TableStats {
 			}
 			
 		} catch (Exception e) {
+		} finally {
+			// unpins the page the scan stopped at
+			it.close();
 		}
     }
 
@@ -201,12 +217,28 @@ public class TableStats {
     	if (td.getFieldType(field) == Type.INT_TYPE) {
     		IntHistogram hst = (IntHistogram)hist[field];
     		return hst.estimateSelectivity(op, ((IntField)constant).getValue());
+    	} else if (isDouble(td.getFieldType(field))) {
+    		DoubleHistogram hst = (DoubleHistogram)hist[field];
+    		return hst.estimateSelectivity(op, doubleValue(constant));
     	} else {
     		StringHistogram hst = (StringHistogram)hist[field];
     		return hst.estimateSelectivity(op, ((StringField)constant).getValue());
     	}
     }
 
+    // whether the statistics of a field of the type are kept in a
+    // DoubleHistogram
+    private static boolean isDouble(Type type) {
+    	return type == Type.LONG_TYPE || type == Type.DATE_TYPE || type == Type.DOUBLE_TYPE;
+    }
+
+    private static double doubleValue(Field f) {
+    	if (f instanceof DoubleField) {
+    		return ((DoubleField)f).getValue();
+    	}
+    	return ((LongField)f).getValue();
+    }
+
     /**
      * return the total number of tuples in this table
      * */
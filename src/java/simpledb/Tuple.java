@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -9,13 +12,23 @@ import java.util.NoSuchElementException;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple need not hold its fields itself: the tuples of a page decode them
+ * from the page bytes when they are read, and the tuples made by
+ * {@link #join} and {@link #project} are views that read them from other
+ * tuples.  Setting a field of a view does not change the tuples under it.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
     private RecordId rid;
+    // the fields set on or decoded into this tuple; null for a view until a
+    // field is set on it
     private Field[] contents;
+    // the serialized tuple the fields not read yet are decoded from, or null
+    private transient ByteBuffer data;
+    private transient int offset;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -30,6 +43,64 @@ public class Tuple implements Serializable {
     	contents = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a serialized tuple the
+     * first time they are read, as the tuples of a page are.  The bytes of
+     * the tuple must not change while the tuple refers to them.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param data
+     *            the buffer that holds the serialized tuple; it is not
+     *            modified.
+     * @param offset
+     *            the index in data of the first byte of the tuple.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset) {
+    	this(td);
+    	this.data = data;
+    	this.offset = offset;
+    }
+
+    // a view, which reads its fields from other tuples
+    private Tuple(TupleDesc td, Field[] contents) {
+    	this.td = td;
+    	this.contents = contents;
+    }
+
+    /**
+     * Returns a tuple whose fields are those of two tuples, one after the
+     * other, as a join produces.  The fields are not copied.
+     *
+     * @param td
+     *            the schema of the combined tuple
+     * @param first
+     *            the tuple with the first fields
+     * @param second
+     *            the tuple with the remaining fields
+     */
+    public static Tuple join(TupleDesc td, Tuple first, Tuple second) {
+    	return new Joined(td, first, second);
+    }
+
+    /**
+     * Returns a tuple whose fields are some of the fields of another tuple,
+     * with the same RecordId.  The fields are not copied.
+     *
+     * @param td
+     *            the schema of the projected tuple
+     * @param source
+     *            the tuple to take the fields from
+     * @param fields
+     *            the index in source of each field of the projected tuple;
+     *            the array is not copied
+     */
+    public static Tuple project(TupleDesc td, Tuple source, int[] fields) {
+    	Tuple t = new Projected(td, source, fields);
+    	t.setRecordId(source.getRecordId());
+    	return t;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -69,6 +140,9 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+    	if (contents == null) {
+    		contents = new Field[td.numFields()];
+    	}
     	contents[i] = f;
     }
 
@@ -80,7 +154,105 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return contents[i];
+    	Field f = contents == null ? null : contents[i];
+    	if (f == null) {
+    		f = readField(i);
+    	}
+        return f;
+    }
+
+    /**
+     * Returns the value of the ith field, which must be an integer, without
+     * creating a Field for it.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws ClassCastException if the field is not an integer
+     */
+    public int getInt(int i) {
+    	Field f = contents == null ? null : contents[i];
+    	if (f == null) {
+    		return readInt(i);
+    	}
+    	return ((IntField) f).getValue();
+    }
+
+    /**
+     * Copies the bytes of the ith field, which must be a string, into dst
+     * without creating a Field for it.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @param dst
+     *            the array to copy the bytes into, which must hold
+     *            Type.STRING_LEN bytes
+     * @return the number of bytes in the string
+     * @throws ClassCastException if the field is not a string
+     */
+    public int getStringBytes(int i, byte[] dst) {
+    	Field f = contents == null ? null : contents[i];
+    	if (f == null) {
+    		return readStringBytes(i, dst);
+    	}
+    	return ((StringField) f).getBytes(dst);
+    }
+
+    // the ith field, which has not been set on this tuple
+    Field readField(int i) {
+    	if (data == null) {
+    		return null;
+    	}
+    	// decoded on first use; a race only decodes the field twice
+    	Field f = td.getFieldType(i).parse(data, offset + td.getOffset(i, data, offset));
+    	contents[i] = f;
+    	return f;
+    }
+
+    // the value of the ith field, an integer which has not been set on this tuple
+    int readInt(int i) {
+    	if (data != null && td.getFieldType(i) == Type.INT_TYPE) {
+    		return data.getInt(offset + td.getOffset(i, data, offset));
+    	}
+    	return ((IntField) getField(i)).getValue();
+    }
+
+    // copy the bytes of the ith field, a string which has not been set on
+    // this tuple
+    int readStringBytes(int i, byte[] dst) {
+    	Type type = td.getFieldType(i);
+    	if (data != null && (type == Type.STRING_TYPE || type == Type.VARCHAR_TYPE)) {
+    		int off = offset + td.getOffset(i, data, offset);
+    		int len = Math.min(data.getInt(off), Type.STRING_LEN);
+    		for (int k = 0; k < len; k++) {
+    			dst[k] = data.get(off + 4 + k);
+    		}
+    		return len;
+    	}
+    	return ((StringField) getField(i)).getBytes(dst);
+    }
+
+    // a tuple that holds its fields itself
+    Tuple copy() {
+    	Tuple t = new Tuple(td);
+    	for (int i = 0; i < td.numFields(); i++) {
+    		t.setField(i, getField(i));
+    	}
+    	t.setRecordId(rid);
+    	return t;
+    }
+
+    // decode the fields that have not been read yet
+    private void decodeAll() {
+    	if (data != null) {
+    		for (int i = 0; i < contents.length; i++) {
+    			getField(i);
+    		}
+    	}
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	decodeAll();
+    	out.defaultWriteObject();
     }
 
     /**
@@ -93,7 +265,11 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
-        return Arrays.toString(contents).replaceAll("[\\[|\\]\\,]", "");
+        Field[] fields = new Field[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+        	fields[i] = getField(i);
+        }
+        return Arrays.toString(fields).replaceAll("[\\[|\\]\\,]", "");
     }
 
     /**
@@ -108,14 +284,13 @@ public class Tuple implements Serializable {
         	
         	@Override
         	public boolean hasNext() {
-        		return i < contents.length;
+        		return i < td.numFields();
         	}
         	
         	@Override
         	public Field next() {
         		if (!hasNext()) throw new NoSuchElementException();
-        		i ++;
-        		return contents[i];
+        		return getField(i++);
         	}
         };
     }
@@ -128,4 +303,64 @@ public class Tuple implements Serializable {
         // some code goes here
     	this.td = td;
     }
+
+    /** The fields of two tuples, one after the other */
+    private static class Joined extends Tuple {
+    	private static final long serialVersionUID = 1L;
+    	private final Tuple first;
+    	private final Tuple second;
+    	private final int split;
+
+    	Joined(TupleDesc td, Tuple first, Tuple second) {
+    		super(td, null);
+    		this.first = first;
+    		this.second = second;
+    		this.split = first.getTupleDesc().numFields();
+    	}
+
+    	Field readField(int i) {
+    		return i < split ? first.getField(i) : second.getField(i - split);
+    	}
+
+    	int readInt(int i) {
+    		return i < split ? first.getInt(i) : second.getInt(i - split);
+    	}
+
+    	int readStringBytes(int i, byte[] dst) {
+    		return i < split ? first.getStringBytes(i, dst) : second.getStringBytes(i - split, dst);
+    	}
+
+    	private Object writeReplace() {
+    		return copy();
+    	}
+    }
+
+    /** Some fields of another tuple */
+    private static class Projected extends Tuple {
+    	private static final long serialVersionUID = 1L;
+    	private final Tuple source;
+    	private final int[] fields;
+
+    	Projected(TupleDesc td, Tuple source, int[] fields) {
+    		super(td, null);
+    		this.source = source;
+    		this.fields = fields;
+    	}
+
+    	Field readField(int i) {
+    		return source.getField(fields[i]);
+    	}
+
+    	int readInt(int i) {
+    		return source.getInt(fields[i]);
+    	}
+
+    	int readStringBytes(int i, byte[] dst) {
+    		return source.getStringBytes(fields[i], dst);
+    	}
+
+    	private Object writeReplace() {
+    		return copy();
+    	}
+    }
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -59,6 +60,10 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TDItem[] td;
+    // the offset of each field in a serialized tuple, computed when first needed
+    private transient int[] offsets;
+    // whether isFixedSize, computed when first needed
+    private transient Boolean fixedSize;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -173,7 +178,9 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         except on the pages of a table that is not of fixed size (see
+     *         {@link #isFixedSize}), where this is their largest size.
      */
     public int getSize() {
         // some code goes here
@@ -184,6 +191,92 @@ public class TupleDesc implements Serializable {
         return res;
     }
 
+    /**
+     * @return true if the tuples of this TupleDesc take the same number of
+     *         bytes on a page whatever their values, which is the case
+     *         unless it has a VARCHAR field.  Pages store the tuples of a
+     *         TupleDesc that is not of fixed size in records of their own
+     *         length.
+     * @see Type#getMinLen
+     */
+    public boolean isFixedSize() {
+        Boolean f = fixedSize;
+        if (f == null) {
+            f = getMinSize() == getSize();
+            fixedSize = f;
+        }
+        return f;
+    }
+
+    /**
+     * @return The smallest size (in bytes) of a tuple of this TupleDesc
+     *         stored in a record of its own length.
+     */
+    public int getMinSize() {
+        int res = 0;
+        for (TDItem i: td) {
+            res += i.fieldType.getMinLen();
+        }
+        return res;
+    }
+
+    /**
+     * @return The size (in bytes) of a tuple of this TupleDesc stored in a
+     *         record of its own length.
+     * @param t
+     *            the tuple, which must have this TupleDesc
+     * @see Type#serializeCompact
+     */
+    public int getCompactSize(Tuple t) {
+        int res = 0;
+        for (int i = 0; i < td.length; i++) {
+            res += td[i].fieldType.getLen(t.getField(i));
+        }
+        return res;
+    }
+
+    /**
+     * @return The offset (in bytes) of the ith field in a serialized tuple
+     *         of this TupleDesc.
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getOffset(int i) {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[td.length];
+            for (int j = 1; j < td.length; j++) {
+                o[j] = o[j - 1] + td[j - 1].fieldType.getLen();
+            }
+            offsets = o;
+        }
+        return o[i];
+    }
+
+    /**
+     * @return The offset (in bytes) of the ith field in a tuple stored at an
+     *         absolute index of a buffer, relative to that index.  This is
+     *         {@link #getOffset(int)} for a TupleDesc of fixed size; the
+     *         fields of other tuples are stored without padding, so their
+     *         offsets depend on the fields before them.
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @param data
+     *            the buffer holding the tuple
+     * @param offset
+     *            the index of the first byte of the tuple
+     */
+    public int getOffset(int i, ByteBuffer data, int offset) {
+        if (isFixedSize()) {
+            return getOffset(i);
+        }
+        int res = 0;
+        for (int j = 0; j < i; j++) {
+            res += td[j].fieldType.getLen(data, offset + res);
+        }
+        return res;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
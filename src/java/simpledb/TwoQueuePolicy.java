@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha).  Newly loaded pages go into a FIFO
+ * queue, A1in.  Pages evicted from A1in are remembered in a ghost queue,
+ * A1out, that holds page ids only.  A page that is loaded again while its id
+ * is in A1out has proven to be hot and goes into Am, an LRU queue.  Pages are
+ * evicted from A1in while it is above its target size and from Am otherwise.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final PageId[] frameIds;
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();
+    private final LinkedHashSet<Integer> am = new LinkedHashSet<Integer>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+
+    public TwoQueuePolicy(int numFrames) {
+        // the sizes recommended in the paper
+        kin = Math.max(1, numFrames / 4);
+        kout = Math.max(1, numFrames / 2);
+        frameIds = new PageId[numFrames];
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        frameIds[frame] = pid;
+        if (a1out.remove(pid)) {
+            am.add(frame);
+        } else {
+            a1in.add(frame);
+        }
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        // hits in A1in are ignored, they are likely correlated references
+        if (am.remove(frame)) {
+            am.add(frame);
+        }
+    }
+
+    public synchronized void pageRemoved(int frame) {
+        if (a1in.remove(frame)) {
+            a1out.add(frameIds[frame]);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(frame);
+        }
+        frameIds[frame] = null;
+    }
+
+    public synchronized int chooseVictim(IntPredicate evictable) {
+        int victim = -1;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = firstEvictable(a1in, evictable);
+        }
+        if (victim == -1) {
+            victim = firstEvictable(am, evictable);
+        }
+        if (victim == -1) {
+            victim = firstEvictable(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private int firstEvictable(LinkedHashSet<Integer> queue, IntPredicate evictable) {
+        for (int frame : queue) {
+            if (evictable.test(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
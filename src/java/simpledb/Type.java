@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new IntField(Integer.parseInt(s.trim()));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +54,155 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            int strLen = Math.min(data.getInt(offset), STRING_LEN);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = data.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        // stored with its length in a tuple of variable size, and padded
+        // to STRING_LEN like a STRING_TYPE everywhere else
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 4;
+        }
+
+        @Override
+        public int getLen(ByteBuffer data, int offset) {
+            return 4 + Math.min(data.getInt(offset), STRING_LEN);
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + ((StringField) f).getValue().length();
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.read(bs);
+                dis.skipBytes(STRING_LEN-strLen);
+                return new VarcharField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            int strLen = Math.min(data.getInt(offset), STRING_LEN);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = data.get(offset + 4 + i);
+            }
+            return new VarcharField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new VarcharField(s, STRING_LEN);
+        }
+
+        @Override
+        public void serializeCompact(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new LongField(data.getLong(offset));
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new LongField(Long.parseLong(s.trim()));
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new DoubleField(data.getDouble(offset));
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new DoubleField(Double.parseDouble(s.trim()));
+        }
+    }, DATE_TYPE() {
+        // milliseconds since 1970-01-01 00:00 UTC, stored like a LONG_TYPE
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new DateField(data.getLong(offset));
+        }
+
+        @Override
+        public Field parse(String s) {
+            try {
+                return DateField.parse(s);
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("bad date: " + s, e);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -51,6 +212,45 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return the smallest number of bytes a field of this type takes in a
+   *   tuple of variable size (see {@link TupleDesc#isFixedSize}).
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes of the field of this type stored in a tuple
+   *   of variable size at an absolute index of a buffer.
+   * @param data The buffer holding the field
+   * @param offset The index of the first byte of the field
+   */
+    public int getLen(ByteBuffer data, int offset) {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes a field of this type takes in a tuple of
+   *   variable size, as written by {@link #serializeCompact}.
+   * @param f The field, which must be of this type
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Write a field of this type in the form it takes in a tuple of variable
+   * size, which is the form written by Field.serialize for every type but
+   * VARCHAR_TYPE: that one is not padded.  Either form is read by
+   * {@link #parse(ByteBuffer, int)}.
+   * @param f The field, which must be of this type
+   * @param dos Where the field is written
+   */
+    public void serializeCompact(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +260,24 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at an absolute index; the
+   *   position of the buffer is not changed.
+   * @param data The buffer to read from
+   * @param offset The index of the first byte of the field
+   */
+    public abstract Field parse(ByteBuffer data, int offset);
+
+  /**
+   * @return a Field object of the same type as this object that holds the
+   *   value written in a string, as in a text file given to HeapFileEncoder
+   *   or a constant in a query: a number for INT_TYPE, LONG_TYPE and
+   *   DOUBLE_TYPE, and yyyy-MM-dd or yyyy-MM-dd HH:mm:ss for DATE_TYPE.
+   * @param s The string to parse
+   * @throws IllegalArgumentException if s does not hold a value of this
+   *   type.
+   */
+    public abstract Field parse(String s);
+
 }
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.UUID;
 
@@ -107,6 +109,8 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        // the free-space map of a table that was at the path is stale
+        new File(path + FreeSpaceMap.SUFFIX).delete();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
@@ -153,5 +157,35 @@ public class Utility {
         }
         return out;
     }
-}
 
+    /**
+     * Reads from the channel at the given position until the buffer is full
+     * or the end of the file is reached.
+     *
+     * @return the number of bytes read, which is less than the space in the
+     *     buffer only if the end of the file was reached
+     */
+    public static int readFully(FileChannel ch, ByteBuffer buf, long pos)
+        throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Writes the whole buffer to the channel at the given position.
+     */
+    public static void writeFully(FileChannel ch, ByteBuffer buf, long pos)
+        throws IOException {
+        long off = pos;
+        while (buf.hasRemaining()) {
+            off += ch.write(buf, off);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package simpledb;
+
+/**
+ * Instance of Field that stores a String of a variable length, up to a
+ * maximum length.  It compares and serializes like a StringField; it only
+ * takes fewer bytes in the tuples of a page, where it is stored without
+ * padding.
+ *
+ * @see Type#VARCHAR_TYPE
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarcharField(String s, int maxSize) {
+		super(s, maxSize);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+		return Type.VARCHAR_TYPE;
+	}
+}
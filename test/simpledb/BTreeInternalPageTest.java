@@ -171,7 +171,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 	 */
 	@Test public void getNumEmptySlots() throws Exception {
 		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
-		assertEquals(483, page.getNumEmptySlots());
+		assertEquals(482, page.getNumEmptySlots());
 	}
 
 	/**
@@ -184,7 +184,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		for (int i = 0; i < 21; ++i)
 			assertTrue(page.isSlotUsed(i));
 
-		for (int i = 21; i < 504; ++i)
+		for (int i = 21; i < 503; ++i)
 			assertFalse(page.isSlotUsed(i));
 	}
 
@@ -238,7 +238,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		int free = page.getNumEmptySlots();
 
 		// NOTE(ghuo): this nested loop existence check is slow, but it
-		// shouldn't make a difference for n = 503 slots.
+		// shouldn't make a difference for n = 502 slots.
 
 		for (int i = 0; i < free; ++i) {
 			BTreeEntry addition = BTreeUtility.getBTreeEntry(i+21, 70000+i, pid.getTableId());
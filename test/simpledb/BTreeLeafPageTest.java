@@ -190,7 +190,7 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 	 */
 	@Test public void getNumEmptySlots() throws Exception {
 		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
-		assertEquals(482, page.getNumEmptySlots());
+		assertEquals(481, page.getNumEmptySlots());
 	}
 
 	/**
@@ -202,7 +202,7 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		for (int i = 0; i < 20; ++i)
 			assertTrue(page.isSlotUsed(i));
 
-		for (int i = 20; i < 502; ++i)
+		for (int i = 20; i < 501; ++i)
 			assertFalse(page.isSlotUsed(i));
 	}
 
@@ -262,7 +262,7 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		int free = page0.getNumEmptySlots();
 
 		// NOTE(ghuo): this nested loop existence check is slow, but it
-		// shouldn't make a difference for n = 502 slots.
+		// shouldn't make a difference for n = 501 slots.
 
 		for (int i = 0; i < free; ++i) {
 			Tuple addition = BTreeUtility.getBTreeTuple(i, 2);
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    // reading page 0 blocks until the test lets it go
+    class SlowHeapFile extends HeapFile {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == 0) {
+                reading.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * A page being read from disk does not hold up a request for a page of
+     * another stripe
+     */
+    @Test public void missesDoNotBlockEachOther() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 503 * 8, null, null);
+        final SlowHeapFile slow = new SlowHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(slow, "slow");
+        final BufferPool bp = Database.getBufferPool();
+        final HeapPageId p0 = new HeapPageId(slow.getId(), 0);
+        HeapPageId other = null;
+        for (int i = 1; i < 8 && other == null; i++) {
+            HeapPageId pid = new HeapPageId(slow.getId(), i);
+            if (bp.latch(pid) != bp.latch(p0)) {
+                other = pid;
+            }
+        }
+        assertNotNull(other);
+
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(new TransactionId(), p0, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+        assertTrue(slow.reading.await(1, TimeUnit.SECONDS));
+        Page p = bp.getPage(new TransactionId(), other, Permissions.READ_ONLY);
+        assertEquals(other, p.getId());
+        slow.proceed.countDown();
+        reader.join(1000);
+        assertFalse(reader.isAlive());
+    }
+
+    /**
+     * Many threads reading random pages through a small pool, which evicts
+     * all the time, always get the page they asked for
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final int numPages = 40;
+        final BufferPool bp = Database.resetBufferPool(8);
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 503 * numPages, null, null);
+        final ArrayList<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long seed = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            TransactionId tid = new TransactionId();
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                            Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            if (!pid.equals(p.getId())) {
+                                throw new AssertionError("asked for " + pid + ", got " + p.getId());
+                            }
+                            bp.transactionComplete(tid);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), errors);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
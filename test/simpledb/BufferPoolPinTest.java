@@ -0,0 +1,108 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPinTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 503 * 6, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage(): a pinned page stays in the pool
+     * while the pages around it are evicted, and only unpinned pages count
+     * towards eviction
+     */
+    @Test public void pinnedPageNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        Page pinned = bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(page(0)));
+        for (int i = 1; i < 6; i++) {
+            bp.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertSame(pinned, bp.getPage(tid, page(0), Permissions.READ_ONLY));
+
+        bp.pinPage(tid, page(5), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, page(1), Permissions.READ_ONLY);
+            fail("expected every frame to be pinned");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.unpinPage(page(5));
+        assertEquals(0, bp.getPinCount(page(5)));
+        bp.getPage(tid, page(1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPinCount(page(0)));
+        bp.unpinPage(page(0));
+        assertEquals(0, bp.getPinCount(page(0)));
+    }
+
+    /**
+     * Unpinning a page that is not pinned is an error, and the pins of a
+     * page discarded while pinned do not release the frame the page is
+     * loaded into next
+     */
+    @Test public void unpinMatchesPin() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        try {
+            bp.unpinPage(page(0));
+            fail("expected an unpin without a pin to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+        bp.discardPage(page(0));
+        bp.pinPage(tid, page(0), Permissions.READ_ONLY);
+        bp.unpinPage(page(0));
+        assertEquals(1, bp.getPinCount(page(0)));
+        bp.unpinPage(page(0));
+        assertEquals(0, bp.getPinCount(page(0)));
+        try {
+            bp.unpinPage(page(0));
+            fail("expected an unpin without a pin to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A heap file scan pins the page it is reading and nothing else
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        assertEquals(1, bp.getPinCount(page(0)));
+        for (int i = 0; i < 503; i++) {
+            it.next();
+        }
+        assertEquals(0, bp.getPinCount(page(0)));
+        assertEquals(1, bp.getPinCount(page(1)));
+        it.close();
+        assertEquals(0, bp.getPinCount(page(1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPinTest.class);
+    }
+}
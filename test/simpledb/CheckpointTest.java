@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CheckpointTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("checkpoint", ".db");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    @After public void removeTable() {
+        file.delete();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).delete();
+    }
+
+    /** Returns page 0 of the table with the tuple (v, v) in slot 0. */
+    private HeapPage pageWith(int v) throws Exception {
+        HeapPage p = new HeapPage(pid, HeapPage.createEmptyPageData());
+        p.insertTuple(Utility.getHeapTuple(new int[] {v, v}));
+        return p;
+    }
+
+    /**
+     * A checkpoint does not write the pages of running transactions
+     */
+    @Test public void checkpointWritesNoPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        byte[] empty = hf.readPage(pid).getPageData();
+
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {1, 1}));
+        Database.getLogFile().logCheckpoint();
+
+        assertTrue(Arrays.equals(empty, hf.readPage(pid).getPageData()));
+        assertEquals(tid, bp.getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * The dirty page table holds the first record of a page that has not
+     * been written since
+     */
+    @Test public void dirtyPageTable() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long first = log.nextLsn.get();
+        log.logWrite(tid, pageWith(1), pageWith(2));
+        log.logWrite(tid, pageWith(2), pageWith(3));
+        assertEquals(Long.valueOf(first), log.dirtyPages.get(pid));
+
+        log.pageWritten(pid);
+        assertNull(log.dirtyPages.get(pid));
+    }
+
+    /**
+     * A committed change that never reached its table survives a
+     * checkpoint, the truncation that follows it and a crash
+     */
+    @Test public void redoFromDirtyPageTable() throws Exception {
+        LogFile log = Database.getLogFile();
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = pageWith(7);
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        after.setLSN(log.logWrite(tid, empty, after));
+        log.logCommit(tid);
+        for (int i = 0; i < 3; i++) {
+            log.logCheckpoint();
+        }
+
+        // crash and restart
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        assertTrue(Arrays.equals(empty.getPageData(), hf.readPage(pid).getPageData()));
+        Database.getLogFile().recover();
+        assertTrue(Arrays.equals(after.getPageData(), hf.readPage(pid).getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CheckpointTest.class);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static File tempTable() throws Exception {
+        File f = File.createTempFile("fsm", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.findPage(): full pages are skipped, pages
+     * the map knows nothing about may have room
+     */
+    @Test public void findPage() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(tempTable());
+        fsm.update(0, 0);
+        fsm.update(1, 0);
+        fsm.update(2, 5);
+        assertEquals(2, fsm.findPage(0, 4));
+        assertEquals(3, fsm.findPage(3, 4));
+        assertEquals(-1, fsm.findPage(0, 2));
+        fsm.update(0, 1);
+        assertEquals(0, fsm.findPage(0, 4));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.write(): entries written with their pages
+     * are read back from the sidecar, unless the table changed length
+     * afterwards
+     */
+    @Test public void sidecar() throws Exception {
+        File f = tempTable();
+        FreeSpaceMap fsm = new FreeSpaceMap(f);
+        fsm.update(0, 0);
+        fsm.write(1, 0);
+        fsm.write(3, 1000);
+        fsm.update(3, 0);
+        fsm.close();
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(f);
+        // page 2 was never written, page 3 was written with room
+        assertEquals(2, reloaded.findPage(0, 4));
+        assertEquals(3, reloaded.findPage(3, 4));
+        // the entry of page 0 was written along with page 1's
+        assertEquals(-1, reloaded.findPage(0, 1));
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(BufferPool.getPageSize());
+        raf.close();
+        assertEquals(1, new FreeSpaceMap(f).findPage(1, 4));
+        assertEquals(0, new File(f.getPath() + FreeSpaceMap.SUFFIX).length());
+    }
+
+    /**
+     * HeapFile.insertTuple() goes to a page the map says has room
+     */
+    @Test public void insertUsesFreePage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 503 * 3, null, tuples);
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        // reading the pages fills in the map
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        Tuple victim = page.iterator().next();
+        bp.deleteTuple(tid, victim);
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(7, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, hf.numPages());
+        // pages 0 and 2 were never locked
+        assertFalse(bp.isWriteLocked(new TransactionId(), new HeapPageId(hf.getId(), 0)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Concurrent inserters do not wait for each other's pages
+     */
+    @Test public void insertsSpread() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Tuple t1 = Utility.getHeapTuple(1, 2);
+        Tuple t2 = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid1, hf.getId(), t1);
+        bp.insertTuple(tid2, hf.getId(), t2);
+        assertEquals(0, t1.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, t2.getRecordId().getPageId().getPageNumber());
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    /** Commits a transaction in a background thread once all committers are ready. */
+    private static class Committer extends Thread {
+        private final LogFile log;
+        private final CyclicBarrier start;
+        volatile boolean committed = false;
+
+        Committer(LogFile log, CyclicBarrier start) {
+            this.log = log;
+            this.start = start;
+            start();
+        }
+
+        public void run() {
+            try {
+                TransactionId tid = new TransactionId();
+                log.logXactionBegin(tid);
+                start.await();
+                log.logCommit(tid);
+                committed = true;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * A commit on its own forces the log once
+     */
+    @Test public void singleCommit() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long forces = log.getForceCount();
+        log.logCommit(tid);
+        assertEquals(forces + 1, log.getForceCount());
+        assertFalse(log.isLive(tid));
+    }
+
+    /**
+     * Transactions that commit within the commit delay share a force
+     */
+    @Test public void concurrentCommitsShareForce() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setMaxCommitDelay(100000);
+        int n = 8;
+        CyclicBarrier start = new CyclicBarrier(n);
+        long forces = log.getForceCount();
+        Committer[] committers = new Committer[n];
+        for (int i = 0; i < n; i++) {
+            committers[i] = new Committer(log, start);
+        }
+        for (Committer c : committers) {
+            c.join(5000);
+            assertTrue(c.committed);
+        }
+        assertTrue(log.getForceCount() - forces < n / 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -72,7 +72,7 @@ public class HeapFileReadTest extends SimpleDbTestBase {
 
         // NOTE(ghuo): we try not to dig too deeply into the Page API here; we
         // rely on HeapPageTest for that. perform some basic checks.
-        assertEquals(484, page.getNumEmptySlots());
+        assertEquals(483, page.getNumEmptySlots());
         assertTrue(page.isSlotUsed(1));
         assertFalse(page.isSlotUsed(20));
     }
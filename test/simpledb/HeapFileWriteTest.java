@@ -26,14 +26,14 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
      * Unit test for HeapFile.addTuple()
      */
     @Test public void addTuple() throws Exception {
-        // we should be able to add 504 tuples on an empty page.
-        for (int i = 0; i < 504; ++i) {
+        // we should be able to add 503 tuples on an empty page.
+        for (int i = 0; i < 503; ++i) {
             empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
             assertEquals(1, empty.numPages());
         }
 
         // the next 512 additions should live on a new page
-        for (int i = 0; i < 504; ++i) {
+        for (int i = 0; i < 503; ++i) {
             empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
             assertEquals(2, empty.numPages());
         }
@@ -43,6 +43,23 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.setExtent(): the file grows by whole extents,
+     * and pages not handed out yet are not counted, also after reopening
+     */
+    @Test public void preallocate() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        empty.setExtent(4 * pageSize, 0);
+        for (int i = 0; i < 503 * 2; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(5 * pageSize, empty.getFile().length());
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(2, reopened.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -104,7 +104,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
      */
     @Test public void getNumEmptySlots() throws Exception {
         HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
-        assertEquals(484, page.getNumEmptySlots());
+        assertEquals(483, page.getNumEmptySlots());
     }
 
     /**
@@ -116,10 +116,24 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         for (int i = 0; i < 20; ++i)
             assertTrue(page.isSlotUsed(i));
 
-        for (int i = 20; i < 504; ++i)
+        for (int i = 20; i < 503; ++i)
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * A page writes back the bytes it was read from, whether its tuples
+     * were read or not
+     */
+    @Test public void pageDataOfUnreadTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) it.next().getField(1)).getValue());
+        it.next();
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -52,7 +52,7 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         int free = page.getNumEmptySlots();
 
         // NOTE(ghuo): this nested loop existence check is slow, but it
-        // shouldn't make a difference for n = 504 slots.
+        // shouldn't make a difference for n = 503 slots.
 
         for (int i = 0; i < free; ++i) {
             Tuple addition = Utility.getHeapTuple(i, 2);
@@ -65,7 +65,8 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
   }
 
   /**
-   * Test IntegerAggregator.mergeTupleIntoGroup() and iterator() over a sum
+   * Test IntegerAggregator.mergeTupleIntoGroup() and iterator() over a sum,
+   * whose results are longs
    */
   @Test public void mergeSum() throws Exception {
     scan1.open();
@@ -75,7 +76,12 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
       agg.mergeTupleIntoGroup(scan1.next());
       OpIterator it = agg.iterator();
       it.open();
-      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, step), it);
+      Object[] expected = new Object[step.length];
+      for (int i = 0; i < step.length; i += 2) {
+        expected[i] = step[i];
+        expected[i + 1] = (long) step[i + 1];
+      }
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
     }
   }
 
@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private PageId pid;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void createLockManager() {
+        lm = new LockManager();
+        pid = new HeapPageId(-1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /** Acquires a lock in a background thread. */
+    private static class Acquirer extends Thread {
+        private final LockManager lm;
+        private final TransactionId tid;
+        private final PageId pid;
+        private final Permissions perm;
+        volatile boolean acquired = false;
+        volatile boolean aborted = false;
+        volatile long acquiredAt;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquiredAt = System.nanoTime();
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    /**
+     * Unit test for LockManager.acquire(): a transaction holding the only
+     * shared lock upgrades it without waiting
+     */
+    @Test public void upgradeInPlace() throws Exception {
+        lm.acquire(tid1, pid, Permissions.READ_ONLY);
+        lm.acquire(tid1, pid, Permissions.READ_WRITE);
+        assertTrue(lm.holdsLock(tid1, pid));
+        assertTrue(lm.isWriteLockedByOther(tid2, pid));
+        assertFalse(lm.isWriteLockedByOther(tid1, pid));
+    }
+
+    /**
+     * A waiting transaction is woken up as soon as the lock is released
+     */
+    @Test public void wakeUpOnRelease() throws Exception {
+        lm.acquire(tid1, pid, Permissions.READ_WRITE);
+        Acquirer a = new Acquirer(lm, tid2, pid, Permissions.READ_ONLY);
+        Thread.sleep(100);
+        assertFalse(a.acquired);
+        long released = System.nanoTime();
+        lm.releaseAll(tid1);
+        a.join(1000);
+        assertTrue(a.acquired);
+        assertTrue((a.acquiredAt - released) / 1000000 < 50);
+    }
+
+    /**
+     * Requests are granted in FIFO order: a shared request that arrives
+     * after a waiting exclusive request does not overtake it
+     */
+    @Test public void fifo() throws Exception {
+        lm.acquire(tid1, pid, Permissions.READ_ONLY);
+        Acquirer writer = new Acquirer(lm, tid2, pid, Permissions.READ_WRITE);
+        Thread.sleep(100);
+        Acquirer reader = new Acquirer(lm, tid3, pid, Permissions.READ_ONLY);
+        Thread.sleep(100);
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.release(tid1, pid);
+        writer.join(1000);
+        assertTrue(writer.acquired);
+        Thread.sleep(100);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid2);
+        reader.join(1000);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * A deadlock is broken as soon as it forms by aborting the transaction
+     * holding the fewest locks; the other waiters are left alone
+     */
+    @Test public void deadlockVictim() throws Exception {
+        PageId p1 = new HeapPageId(-1, 1);
+        PageId p2 = new HeapPageId(-1, 2);
+        lm.acquire(tid1, pid, Permissions.READ_WRITE);
+        lm.acquire(tid1, p1, Permissions.READ_WRITE);
+        lm.acquire(tid2, p2, Permissions.READ_WRITE);
+        Acquirer a1 = new Acquirer(lm, tid1, p2, Permissions.READ_WRITE);
+        Thread.sleep(50);
+        // tid3 waits for tid2 and tid1 without being part of the deadlock
+        Acquirer bystander = new Acquirer(lm, tid3, p2, Permissions.READ_ONLY);
+        Thread.sleep(50);
+        assertFalse(a1.acquired || a1.aborted);
+
+        long start = System.nanoTime();
+        Acquirer a2 = new Acquirer(lm, tid2, pid, Permissions.READ_ONLY);
+        a2.join(1000);
+        assertTrue(a2.aborted);
+        assertTrue((System.nanoTime() - start) / 1000000 < 50);
+        assertFalse(a1.acquired || a1.aborted);
+        assertFalse(bystander.acquired || bystander.aborted);
+
+        lm.releaseAll(tid2);
+        a1.join(1000);
+        assertTrue(a1.acquired);
+        lm.releaseAll(tid1);
+        bystander.join(1000);
+        assertTrue(bystander.acquired);
+    }
+
+    /**
+     * The state of a page is dropped once nobody holds or waits for a lock
+     * on it, and a page that is locked again gets a new one
+     */
+    @Test public void unusedPagesDropped() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            lm.acquire(tid1, new HeapPageId(-1, i), Permissions.READ_ONLY);
+        }
+        lm.acquire(tid2, pid, Permissions.READ_ONLY);
+        assertEquals(100, lm.numLockedPages());
+        lm.releaseAll(tid1);
+        assertEquals(1, lm.numLockedPages());
+        lm.release(tid2, pid);
+        assertEquals(0, lm.numLockedPages());
+
+        lm.acquire(tid1, pid, Permissions.READ_WRITE);
+        Acquirer a = new Acquirer(lm, tid2, pid, Permissions.READ_WRITE);
+        Thread.sleep(50);
+        assertFalse(a.acquired);
+        lm.releaseAll(tid1);
+        a.join(1000);
+        assertTrue(a.acquired);
+        lm.releaseAll(tid2);
+        assertEquals(0, lm.numLockedPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.EOFException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private Page page;
+    private Page empty;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        page = hf.readPage(new HeapPageId(hf.getId(), 0));
+        empty = new HeapPage((HeapPageId)page.getId(), HeapPage.createEmptyPageData());
+    }
+
+    /** Logs records for one transaction in a background thread. */
+    private class Logger extends Thread {
+        private final LogFile log;
+        private final int records;
+
+        Logger(LogFile log, int records) {
+            this.log = log;
+            this.records = records;
+            start();
+        }
+
+        public void run() {
+            try {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < records; i++) {
+                    log.logWrite(tid, page, page);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Count the records of the given type in the log, checking that every
+     * record ends with its own LSN and that the last one ends where the
+     * next record will go.
+     */
+    static int countRecords(LogFile log, int recordType) throws Exception {
+        LogSegments.Input raf = log.segments.open(log.segments.getStartLsn());
+        try {
+            int count = 0;
+            while (true) {
+                long start = raf.getFilePointer();
+                int type;
+                try {
+                    type = raf.readInt();
+                } catch (EOFException e) {
+                    assertEquals(log.nextLsn.get(), start);
+                    return count;
+                }
+                raf.readLong();
+                if (type == LogFile.UPDATE_RECORD) {
+                    log.readPageData(raf);
+                    log.readPageData(raf);
+                } else if (type == LogFile.SLOT_RECORD) {
+                    raf.readUTF();
+                    log.readPageId(raf);
+                    SlotDelta.readFrom(raf);
+                } else if (type == LogFile.CHECKPOINT_RECORD) {
+                    raf.skipBytes(raf.readInt() * 2 * LogFile.LONG_SIZE);
+                    for (int pages = raf.readInt(); pages > 0; pages--) {
+                        log.readPageId(raf);
+                        raf.readLong();
+                    }
+                }
+                assertEquals(start, raf.readLong());
+                if (type == recordType) {
+                    count++;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Records that wrap around the end of the log buffer reach the log
+     * file intact, and a rollback reads them back
+     */
+    @Test public void wrapAround() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        int records = 0;
+        log.logXactionBegin(tid);
+        long start = log.nextLsn.get();
+        while (log.nextLsn.get() - start < 3 * LogFile.BUFFER_BYTES / 2) {
+            log.logWrite(tid, empty, page);
+            records++;
+        }
+        log.force();
+        assertEquals(records, countRecords(log, LogFile.SLOT_RECORD));
+
+        log.rollback(tid);
+        Page onDisk = hf.readPage(page.getId());
+        assertTrue(Arrays.equals(empty.getPageData(), onDisk.getPageData()));
+    }
+
+    /**
+     * Records appended by concurrent threads do not overlap
+     */
+    @Test public void concurrentAppends() throws Exception {
+        LogFile log = Database.getLogFile();
+        Logger[] loggers = new Logger[4];
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i] = new Logger(log, 100);
+        }
+        for (Logger l : loggers) {
+            l.join();
+        }
+        log.force();
+        assertEquals(400, log.getTotalRecords());
+        assertEquals(400, countRecords(log, LogFile.SLOT_RECORD));
+    }
+
+    /**
+     * Inserting a tuple logs the tuple rather than the page images, and a
+     * rollback takes it back out of the page on disk
+     */
+    @Test public void insertLogsSlot() throws Exception {
+        LogFile log = Database.getLogFile();
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        byte[] original = hf.readPage(pid).getPageData();
+
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {7, 7}));
+        bp.flushPages(tid);
+        assertEquals(1, countRecords(log, LogFile.SLOT_RECORD));
+        assertEquals(0, countRecords(log, LogFile.UPDATE_RECORD));
+        assertTrue(log.nextLsn.get() - log.segments.getStartLsn() < BufferPool.getPageSize() / 10);
+        Page flushed = hf.readPage(pid);
+        assertFalse(Arrays.equals(original, flushed.getPageData()));
+        assertTrue(flushed.getLSN() > 0);
+
+        log.rollback(tid);
+        // the tuple is gone, but the page keeps the LSN of the change
+        Page rolledBack = hf.readPage(pid);
+        assertEquals(flushed.getLSN(), rolledBack.getLSN());
+        rolledBack.setLSN(0);
+        assertTrue(Arrays.equals(original, rolledBack.getPageData()));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    // much smaller than a record, so that records span segments
+    private static final int SEGMENT_BYTES = 1000;
+
+    private File dir;
+    private File logFile;
+    private HeapFile hf;
+    private HeapPage empty;
+    private HeapPage full;
+
+    @Before public void createLog() throws Exception {
+        dir = Files.createTempDirectory("segments").toFile();
+        logFile = new File(dir, "log");
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        full = (HeapPage)hf.readPage(pid);
+        empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    @After public void removeLog() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private int numSegments() {
+        return dir.listFiles().length - 1;
+    }
+
+    /**
+     * Log a committed transaction that turns the full page into the empty
+     * one, which gets the LSN of the change.
+     */
+    private void logEmptying(LogFile log) throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        empty.setLSN(log.logWrite(tid, full, empty));
+        log.logCommit(tid);
+    }
+
+    /**
+     * Records that span segments are read back whole
+     */
+    @Test public void recordsSpanSegments() throws Exception {
+        LogFile log = new LogFile(logFile, SEGMENT_BYTES);
+        for (int i = 0; i < 3; i++) {
+            logEmptying(log);
+        }
+        assertTrue(numSegments() > 3);
+        assertEquals(3, LogBufferTest.countRecords(log, LogFile.SLOT_RECORD));
+        assertEquals(3, LogBufferTest.countRecords(log, LogFile.COMMIT_RECORD));
+        log.shutdown();
+    }
+
+    /**
+     * Truncation deletes the segments before the checkpoint and leaves the
+     * LSNs of the records after it as they were
+     */
+    @Test public void truncateDeletesSegments() throws Exception {
+        LogFile log = new LogFile(logFile, SEGMENT_BYTES);
+        for (int i = 0; i < 3; i++) {
+            logEmptying(log);
+        }
+        // the page reached its table
+        log.pageWritten(full.getId());
+        int before = numSegments();
+        long end = log.nextLsn.get();
+
+        log.logCheckpoint();
+        assertTrue(numSegments() < before);
+        assertEquals(end, log.segments.getCheckpointLsn());
+        assertEquals(end, log.segments.getStartLsn());
+        assertEquals(1, LogBufferTest.countRecords(log, LogFile.CHECKPOINT_RECORD));
+        assertEquals(0, LogBufferTest.countRecords(log, LogFile.SLOT_RECORD));
+    }
+
+    /**
+     * Recovery reads the log across segments, from the start left by the
+     * last truncation
+     */
+    @Test public void recoverAcrossSegments() throws Exception {
+        LogFile log = new LogFile(logFile, SEGMENT_BYTES);
+        logEmptying(log);
+        log.logCheckpoint();
+        logEmptying(log);
+        log.force();
+
+        // restart without the page having been written
+        hf.writePage(full);
+        LogFile restarted = new LogFile(logFile, SEGMENT_BYTES);
+        restarted.recover();
+        assertTrue(Arrays.equals(empty.getPageData(), hf.readPage(full.getId()).getPageData()));
+        assertEquals(log.nextLsn.get(), restarted.nextLsn.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedTableTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: a three page table,
+     * registered as a mapped table.
+     */
+    @Before
+    public void createMappedTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, null, tuples);
+        mapTable(hf);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void mapTable(DbFile f) {
+        Catalog c = Database.getCatalog();
+        c.addTable(f, c.getTableName(f.getId()), "", true);
+    }
+
+    /**
+     * Unit test for Catalog.isMapped()
+     */
+    @Test
+    public void isMapped() throws Exception {
+        assertTrue(Database.getCatalog().isMapped(hf.getId()));
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        assertFalse(Database.getCatalog().isMapped(other.getId()));
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a mapped table: the page is built
+     * over the mapped bytes and has the same contents as a copied page
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+
+        byte[] data = page.getPageData();
+        HeapPage copy = new HeapPage(pid, data);
+        assertArrayEquals(data, copy.getPageData());
+        assertEquals(copy.getNumEmptySlots(), page.getNumEmptySlots());
+    }
+
+    /**
+     * Scanning a mapped table returns all tuples without caching or locking
+     * its pages in the BufferPool
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        BufferPool bp = Database.getBufferPool();
+        assertEquals(0, bp.getMissCount());
+        assertFalse(bp.holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+    }
+
+    /**
+     * A mapped table is read-only
+     */
+    @Test
+    public void readOnly() throws Exception {
+        try {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(3, hf.numPages());
+    }
+
+    /**
+     * Unit test for BTreeFile.readPage() on a mapped table
+     */
+    @Test
+    public void readLeafPage() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20, null, null, 0);
+        mapTable(bf);
+        BTreePageId pid = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+        BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+        assertEquals(20, page.getNumTuples());
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedTableTest.class);
+    }
+}
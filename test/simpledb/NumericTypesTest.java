@@ -0,0 +1,183 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class NumericTypesTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {
+        Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "g", "l", "d", "t" });
+
+    private static Tuple tuple(int g, long l, double d, String t) {
+        Tuple tup = new Tuple(TD);
+        tup.setField(0, new IntField(g));
+        tup.setField(1, new LongField(l));
+        tup.setField(2, new DoubleField(d));
+        tup.setField(3, DateField.parse(t));
+        return tup;
+    }
+
+    private static Field aggregate(OpIterator child, int afield, Aggregator.Op op) throws Exception {
+        Aggregate agg = new Aggregate(child, afield, Aggregator.NO_GROUPING, op);
+        agg.open();
+        Field f = agg.next().getField(0);
+        assertEquals(Aggregate.resultType(TD.getFieldType(afield), op), f.getType());
+        return f;
+    }
+
+    /**
+     * Each type reads what it writes, from a stream and from a buffer, and
+     * takes 8 bytes
+     */
+    @Test public void parseAndSerialize() throws Exception {
+        String[][] values = {
+            { "LONG_TYPE", "-5000000000" },
+            { "DOUBLE_TYPE", "2.5" },
+            { "DATE_TYPE", "2020-02-29" },
+            { "DATE_TYPE", "1969-12-31 23:59:59.5" },
+        };
+        for (String[] v : values) {
+            Type type = Type.valueOf(v[0]);
+            Field f = type.parse(v[1]);
+            assertEquals(type, f.getType());
+            assertEquals(8, type.getLen());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            f.serialize(new DataOutputStream(baos));
+            byte[] bytes = baos.toByteArray();
+            assertEquals(8, bytes.length);
+            assertEquals(f, type.parse(new DataInputStream(new ByteArrayInputStream(bytes))));
+            assertEquals(f, type.parse(ByteBuffer.wrap(bytes), 0));
+            assertEquals(f, type.parse(f.toString()));
+        }
+        assertEquals("2020-02-29", Type.DATE_TYPE.parse("2020-02-29").toString());
+        assertEquals(86400000L, ((DateField) Type.DATE_TYPE.parse("1970-01-02")).getValue());
+        assertEquals(Type.DATE_TYPE.parse("2020-02-29T10:15:30"),
+                Type.DATE_TYPE.parse("2020-02-29 10:15:30"));
+        assertEquals(4 + 3 * 8, TD.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void badDate() {
+        Type.DATE_TYPE.parse("2020-02-30");
+    }
+
+    /**
+     * Predicates compare numbers and dates by value, not as strings
+     */
+    @Test public void filter() {
+        Tuple t = tuple(0, 10, 10.0, "2020-10-01");
+        assertTrue(new Predicate(1, Predicate.Op.GREATER_THAN, new LongField(9)).filter(t));
+        assertTrue(new Predicate(2, Predicate.Op.GREATER_THAN, new DoubleField(9.5)).filter(t));
+        assertTrue(new Predicate(3, Predicate.Op.GREATER_THAN, DateField.parse("2020-09-01")).filter(t));
+        assertFalse(new Predicate(3, Predicate.Op.LESS_THAN, DateField.parse("2020-09-30")).filter(t));
+    }
+
+    /**
+     * Sums are kept in 64 bits, so that SUM and AVG of ints and longs do
+     * not overflow
+     */
+    @Test public void aggregates() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(tuple(2000000000, 3000000000L, 0.5, "2021-01-01"));
+        tuples.add(tuple(2000000000, 3000000000L, 1.0, "2020-06-30"));
+        tuples.add(tuple(2000000000, 3000000000L, 3.0, "2020-07-01 12:00"));
+        TupleIterator child = new TupleIterator(TD, tuples);
+
+        assertEquals(new LongField(6000000000L), aggregate(child, 0, Aggregator.Op.SUM));
+        assertEquals(new IntField(2000000000), aggregate(child, 0, Aggregator.Op.AVG));
+        assertEquals(new LongField(9000000000L), aggregate(child, 1, Aggregator.Op.SUM));
+        assertEquals(new LongField(3000000000L), aggregate(child, 1, Aggregator.Op.AVG));
+        assertEquals(new DoubleField(1.5), aggregate(child, 2, Aggregator.Op.AVG));
+        assertEquals(new DoubleField(0.5), aggregate(child, 2, Aggregator.Op.MIN));
+        assertEquals(new IntField(3), aggregate(child, 3, Aggregator.Op.COUNT));
+        assertEquals(DateField.parse("2020-06-30"), aggregate(child, 3, Aggregator.Op.MIN));
+        assertEquals(DateField.parse("2021-01-01"), aggregate(child, 3, Aggregator.Op.MAX));
+    }
+
+    @Test public void groupedAggregate() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(tuple(1, 5, 0, "2020-01-01"));
+        tuples.add(tuple(2, 7, 0, "2020-01-01"));
+        tuples.add(tuple(1, -1, 0, "2020-01-01"));
+        Aggregate agg = new Aggregate(new TupleIterator(TD, tuples), 1, 0, Aggregator.Op.MAX);
+        agg.open();
+        Tuple t = agg.next();
+        assertEquals(new IntField(1), t.getField(0));
+        assertEquals(new LongField(5), t.getField(1));
+        t = agg.next();
+        assertEquals(new IntField(2), t.getField(0));
+        assertEquals(new LongField(7), t.getField(1));
+        assertFalse(agg.hasNext());
+    }
+
+    @Test public void histogram() {
+        DoubleHistogram h = new DoubleHistogram(100, 0, 999);
+        for (int i = 0; i < 1000; i++) {
+            h.addValue(i);
+        }
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN, 500), 0.02);
+        assertEquals(0.25, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 750), 0.02);
+        assertEquals(0.001, h.estimateSelectivity(Predicate.Op.EQUALS, 300), 0.001);
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.EQUALS, -1), 0);
+        assertEquals(1, h.estimateSelectivity(Predicate.Op.LESS_THAN, 1e9), 0);
+    }
+
+    /**
+     * HeapFileEncoder writes the types, and TableStats keeps histograms of
+     * them
+     */
+    @Test public void encoder() throws Exception {
+        File text = File.createTempFile("numeric", ".txt");
+        text.deleteOnExit();
+        File table = File.createTempFile("numeric", ".dat");
+        table.deleteOnExit();
+        int rows = 1000;
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < rows; i++) {
+            w.write(i + "," + (i * 10000000000L) + "," + (i / 4.0) + ",2020-01-01 00:00:0" + (i % 10) + "\n");
+        }
+        w.close();
+        HeapFileEncoder.convert(text, table, BufferPool.getPageSize(), 4, TYPES);
+
+        HeapFile hf = new HeapFile(table, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getInt(0));
+            assertEquals(new LongField(i * 10000000000L), t.getField(1));
+            assertEquals(new DoubleField(i / 4.0), t.getField(2));
+            assertEquals(DateField.parse("2020-01-01 00:00:0" + (i % 10)), t.getField(3));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+
+        TableStats stats = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(0.1, stats.estimateSelectivity(1, Predicate.Op.LESS_THAN,
+                new LongField(1000000000000L)), 0.02);
+        assertEquals(0.5, stats.estimateSelectivity(2, Predicate.Op.GREATER_THAN_OR_EQ,
+                new DoubleField(125)), 0.02);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericTypesTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static int countOnDisk(HeapFile hf) {
+        int count = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            count += p.numSlots - p.getNumEmptySlots();
+        }
+        return count;
+    }
+
+    /**
+     * Committing does not write the pages; the cleaner writes them shortly
+     * afterwards
+     */
+    @Test public void cleanerWritesCommittedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(tid);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (countOnDisk(hf) != 11 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(11, countOnDisk(hf));
+    }
+
+    /**
+     * A small pool under a steady stream of committed inserts always finds
+     * a page to evict, and no committed tuple is lost
+     */
+    @Test public void steadyWriteLoad() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        for (int i = 0; i < 503 * 12; i += 42) {
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < i + 42; j++) {
+                bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(j, 2));
+                inserted.add(j);
+            }
+            bp.transactionComplete(tid);
+        }
+        assertTrue(hf.numPages() >= 12);
+        bp.shutdown();
+        assertEquals(inserted.size(), countOnDisk(hf));
+    }
+
+    /**
+     * An aborted transaction's changes are undone without losing the
+     * committed changes that have not been written yet
+     */
+    @Test public void abortKeepsUnwrittenChanges() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId t1 = new TransactionId();
+        bp.insertTuple(t1, hf.getId(), Utility.getHeapTuple(1, 2));
+        bp.transactionComplete(t1);
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(2, 2));
+        bp.transactionComplete(t2, false);
+
+        HeapPage p = (HeapPage) bp.getPage(new TransactionId(),
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(11, p.numSlots - p.getNumEmptySlots());
+        bp.shutdown();
+        assertEquals(11, countOnDisk(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
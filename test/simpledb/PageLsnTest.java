@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageLsnTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("pagelsn", ".db");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void removeTable() {
+        file.delete();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).delete();
+    }
+
+    /** Returns page pgNo of the table with the tuple (v, v) in slot 0. */
+    private HeapPage pageWith(int pgNo, int v) throws Exception {
+        HeapPage p = new HeapPage(new HeapPageId(hf.getId(), pgNo), HeapPage.createEmptyPageData());
+        p.insertTuple(Utility.getHeapTuple(new int[] {v, v}));
+        return p;
+    }
+
+    /** Log a committed change of a page from before to after. */
+    private long logCommitted(HeapPage before, HeapPage after) throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long lsn = log.logWrite(tid, before, after);
+        log.logCommit(tid);
+        return lsn;
+    }
+
+    /**
+     * The page LSN is part of the page data, and flushing a page sets it
+     * to the LSN of the record logged for it
+     */
+    @Test public void flushSetsLsn() throws Exception {
+        HeapPage p = pageWith(0, 1);
+        p.setLSN(42);
+        assertEquals(42, new HeapPage(p.getId(), p.getPageData()).getLSN());
+
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {1, 1}));
+        long before = Database.getLogFile().nextLsn.get();
+        bp.flushAllPages();
+        assertTrue(hf.readPage(p.getId()).getLSN() >= before);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The page LSN field carries the format mark; an all-zero page reads as
+     * an empty page, and a page without the mark is refused
+     */
+    @Test public void formatMark() throws Exception {
+        HeapPage p = pageWith(0, 1);
+        p.setLSN(42);
+        ByteBuffer data = ByteBuffer.wrap(p.getPageData());
+        assertEquals(Page.FORMAT_MARK | 42, data.getLong(0));
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(0, empty.getLSN());
+        assertEquals(Page.FORMAT_MARK, ByteBuffer.wrap(empty.getPageData()).getLong(0));
+
+        // a page of the format before page LSNs: the slot bitmap comes first
+        byte[] old = HeapPage.createEmptyPageData();
+        old[0] = 1;
+        try {
+            new HeapPage(pid, old);
+            fail("expected an IOException for a page without the format mark");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Recovery does not redo a change onto a page whose LSN says it holds
+     * the change already
+     */
+    @Test public void redoSkipsUpToDatePage() throws Exception {
+        HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        long lsn = logCommitted(empty, pageWith(0, 7));
+        Database.getLogFile().force();
+
+        // the page on disk is newer than the change
+        HeapPage newer = pageWith(0, 8);
+        newer.setLSN(lsn);
+        hf.writePage(newer);
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertTrue(Arrays.equals(newer.getPageData(), hf.readPage(newer.getId()).getPageData()));
+    }
+
+    /**
+     * Recovery with several threads redoes the changes of every page,
+     * leaving each one with the LSN of its last change
+     */
+    @Test public void parallelRedo() throws Exception {
+        int pages = 20;
+        HeapPage[] expected = new HeapPage[pages];
+        for (int i = 0; i < pages; i++) {
+            HeapPage empty = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            HeapPage first = pageWith(i, i);
+            logCommitted(empty, first);
+            expected[i] = pageWith(i, 100 + i);
+            expected[i].setLSN(logCommitted(first, expected[i]));
+            hf.writePage(empty);
+        }
+        Database.getLogFile().force();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().setRecoveryThreads(4);
+        Database.getLogFile().recover();
+        for (int i = 0; i < pages; i++) {
+            assertTrue(Arrays.equals(expected[i].getPageData(),
+                    hf.readPage(expected[i].getId()).getPageData()));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageLsnTest.class);
+    }
+}
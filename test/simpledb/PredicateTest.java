@@ -5,6 +5,7 @@ import org.junit.Test;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
 public class PredicateTest extends SimpleDbTestBase{
@@ -55,6 +56,28 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.filter() over strings, which must agree with
+   * StringField.compare()
+   */
+  @Test public void filterStrings() {
+    String[] vals = new String[] { "", "a", "ab", "abc", "b", "ba", "bab" };
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (String operand : vals) {
+        StringField f = new StringField(operand, Type.STRING_LEN);
+        Predicate p = new Predicate(0, op, f);
+        for (String val : vals) {
+          Tuple t = new Tuple(td);
+          t.setField(0, new StringField(val, Type.STRING_LEN));
+          assertEquals(op + " " + val + " " + operand,
+              t.getField(0).compare(op, f), p.filter(t));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
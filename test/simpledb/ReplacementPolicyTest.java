@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final IntPredicate ALL = new IntPredicate() {
+        public boolean test(int frame) {
+            return true;
+        }
+    };
+
+    private static HeapPageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /** Load frames 0..n-1 with pages 0..n-1 */
+    private static void fill(ReplacementPolicy p, int n) {
+        for (int i = 0; i < n; i++) {
+            p.pageLoaded(i, pid(i));
+        }
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced frames get a second chance
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy p = new ClockPolicy(3);
+        fill(p, 3);
+        // the first sweep clears all bits, then frame 0 is the first candidate
+        assertEquals(0, p.chooseVictim(ALL));
+        p.pageAccessed(1);
+        assertEquals(2, p.chooseVictim(ALL));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages referenced only once are evicted first
+     */
+    @Test public void lruKPrefersCorrelatedPages() {
+        ReplacementPolicy p = new LruKPolicy(3, 2);
+        fill(p, 3);
+        p.pageAccessed(0);
+        p.pageAccessed(2);
+        assertEquals(1, p.chooseVictim(ALL));
+        p.pageAccessed(1);
+        // all pages have two references; page 0 has the oldest second reference
+        assertEquals(0, p.chooseVictim(ALL));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: pages seen again after eviction go to Am
+     */
+    @Test public void twoQueueGhostHit() {
+        ReplacementPolicy p = new TwoQueuePolicy(4);
+        fill(p, 4);
+        // A1in is over its target size, so its oldest page goes first
+        assertEquals(0, p.chooseVictim(ALL));
+        p.pageRemoved(0);
+        // page 0 is in A1out, so reloading it puts it into Am
+        p.pageLoaded(0, pid(0));
+        assertEquals(1, p.chooseVictim(ALL));
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.chooseVictim(): frames that are not
+     * evictable are skipped
+     */
+    @Test public void skipsUnevictable() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy p = kind.create(3);
+            fill(p, 3);
+            assertEquals(2, p.chooseVictim(new IntPredicate() {
+                public boolean test(int frame) {
+                    return frame == 2;
+                }
+            }));
+            assertEquals(-1, p.chooseVictim(new IntPredicate() {
+                public boolean test(int frame) {
+                    return false;
+                }
+            }));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
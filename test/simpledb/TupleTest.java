@@ -57,6 +57,48 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.getInt()
+     */
+    @Test public void getInt() {
+        Tuple tup = Utility.getHeapTuple(new int[] {5, -3});
+        assertEquals(5, tup.getInt(0));
+        assertEquals(-3, tup.getInt(1));
+    }
+
+    /**
+     * Unit test for Tuple.join(): the joined tuple reads the fields of its
+     * inputs, and setting its fields leaves them alone
+     */
+    @Test public void joinView() {
+        Tuple left = Utility.getHeapTuple(new int[] {1, 2});
+        Tuple right = Utility.getHeapTuple(new int[] {3});
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        Tuple joined = Tuple.join(td, left, right);
+
+        assertEquals(new IntField(2), joined.getField(1));
+        assertEquals(3, joined.getInt(2));
+        assertEquals("1 2 3", joined.toString());
+
+        joined.setField(2, new IntField(7));
+        assertEquals(7, joined.getInt(2));
+        assertEquals(1, joined.getInt(0));
+        assertEquals(3, right.getInt(0));
+    }
+
+    /**
+     * Unit test for Tuple.project()
+     */
+    @Test public void projectView() {
+        Tuple source = Utility.getHeapTuple(new int[] {1, 2, 3});
+        source.setRecordId(new RecordId(new HeapPageId(0, 0), 4));
+        Tuple projected = Tuple.project(Utility.getTupleDesc(2), source, new int[] {2, 0});
+
+        assertEquals(new IntField(3), projected.getField(0));
+        assertEquals(1, projected.getInt(1));
+        assertEquals(source.getRecordId(), projected.getRecordId());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class VarcharTest extends SimpleDbTestBase {
+
+    // a string field followed by an int, so that the offset of the int
+    // depends on the length of the string
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.VARCHAR_TYPE, Type.INT_TYPE }, new String[] { "s", "i" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(String s, int i) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new VarcharField(s, Type.STRING_LEN));
+        t.setField(1, new IntField(i));
+        return t;
+    }
+
+    private static void assertTuple(String s, int i, Tuple t) {
+        byte[] bytes = new byte[Type.STRING_LEN];
+        assertEquals(new VarcharField(s, Type.STRING_LEN), t.getField(0));
+        assertEquals(s.length(), t.getStringBytes(0, bytes));
+        assertEquals(s, new String(bytes, 0, s.length()));
+        assertEquals(i, t.getInt(1));
+    }
+
+    /**
+     * A page holds as many short tuples as fit, many more than tuples of
+     * the largest size
+     */
+    @Test public void pageHoldsShortTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int fixedSlots = (BufferPool.getPageSize() - Page.LSN_SIZE) * 8 / (TD.getSize() * 8 + 1);
+        int n = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple("t" + n, n));
+            n++;
+        }
+        assertTrue(n > 5 * fixedSlots);
+        // the count of empty slots is for tuples of the largest size, and
+        // a short one still fits
+        page.insertTuple(tuple("x", -1));
+        n++;
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        assertTrue(Arrays.equals(page.getPageData(), read.getPageData()));
+        Iterator<Tuple> it = read.iterator();
+        for (int i = 0; i < n - 1; i++) {
+            assertTuple("t" + i, i, it.next());
+        }
+        assertTuple("x", -1, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A deleted record frees its bytes for a longer one, and the tuples
+     * that were not read keep their bytes
+     */
+    @Test public void deleteThenInsert() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++) {
+            page.insertTuple(tuple("abc", i));
+        }
+        page = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(tuple("a much longer string", 7));
+
+        Iterator<Tuple> read = new HeapPage(pid, page.getPageData()).iterator();
+        assertTuple("abc", 0, read.next());
+        assertTuple("a much longer string", 7, read.next());
+        assertTuple("abc", 2, read.next());
+        assertFalse(read.hasNext());
+    }
+
+    /**
+     * Leaf pages of a B+ tree store their tuples in records too, in key
+     * order
+     */
+    @Test public void leafPage() throws Exception {
+        BTreePageId leaf = new BTreePageId(-1, -1, BTreePageId.LEAF);
+        BTreeLeafPage page = new BTreeLeafPage(leaf, BTreeLeafPage.createEmptyPageData(), 1);
+        int n = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple("t" + n, 1000 - n));
+            n++;
+        }
+        assertTrue(n > 5 * (BufferPool.getPageSize() / TD.getSize()));
+
+        BTreeLeafPage read = new BTreeLeafPage(leaf, page.getPageData(), 1);
+        assertTrue(Arrays.equals(page.getPageData(), read.getPageData()));
+        assertEquals(n, read.getNumTuples());
+        Iterator<Tuple> it = read.iterator();
+        for (int i = n - 1; i >= 0; i--) {
+            assertTuple("t" + i, 1000 - i, it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * HeapFileEncoder writes the pages of a table with a VARCHAR field in
+     * the same layout
+     */
+    @Test public void encoder() throws Exception {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        File table = File.createTempFile("varchar", ".dat");
+        table.deleteOnExit();
+        int rows = 1000;
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < rows; i++) {
+            w.write("row" + i + "," + i + "\n");
+        }
+        w.close();
+        HeapFileEncoder.convert(text, table, BufferPool.getPageSize(), 2,
+                new Type[] { Type.VARCHAR_TYPE, Type.INT_TYPE });
+
+        HeapFile hf = new HeapFile(table, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.numPages() < rows / 100);
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < rows; i++) {
+            assertTuple("row" + i, i, it.next());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VarcharTest.class);
+    }
+}
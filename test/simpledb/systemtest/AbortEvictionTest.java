@@ -8,8 +8,8 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 public class AbortEvictionTest extends SimpleDbTestBase {
-    /** Aborts a transaction and ensures that its effects were actually undone.
-     * This requires dirty pages to <em>not</em> get flushed to disk.
+    /** Aborts a transaction and ensures that its effects were actually undone,
+     * including on dirty pages that were evicted while it ran.
      */
     @Test public void testDoNotEvictDirtyPages()
             throws IOException, DbException, TransactionAbortedException {
@@ -0,0 +1,68 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of a BufferPool.getPage() hit as the pool grows.  For each
+ * pool size, a heap file with exactly that many (empty) pages is created and
+ * read into the pool, then random pages are requested repeatedly.  With the
+ * page table every hit should cost roughly the same regardless of pool size.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=BufferPoolLookupBenchmark
+ */
+public class BufferPoolLookupBenchmark {
+    private static final int[] POOL_SIZES = { 64, 256, 1024, 4096, 16384, 32768 };
+    private static final int LOOKUPS = 2000000;
+    // small pages keep the largest pool within the default test heap
+    private static final int PAGE_SIZE = 256;
+
+    public static void main(String[] args) throws Exception {
+        BufferPool.setPageSize(PAGE_SIZE);
+        System.out.println("pool pages\tns/lookup");
+        for (int poolSize : POOL_SIZES) {
+            System.out.println(poolSize + "\t\t" + String.format("%.1f", nanosPerLookup(poolSize)));
+        }
+        BufferPool.resetPageSize();
+    }
+
+    private static double nanosPerLookup(int poolSize)
+            throws IOException, DbException, TransactionAbortedException {
+        Database.reset();
+        File temp = File.createTempFile("lookup", ".dat");
+        temp.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(temp);
+        out.write(new byte[poolSize * PAGE_SIZE]);
+        out.close();
+        HeapFile hf = Utility.openHeapFile(2, temp);
+
+        BufferPool bp = Database.resetBufferPool(poolSize);
+        TransactionId tid = new TransactionId();
+        HeapPageId[] pids = new HeapPageId[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            pids[i] = new HeapPageId(hf.getId(), i);
+            bp.getPage(tid, pids[i], Permissions.READ_ONLY);
+        }
+
+        Random r = new Random(42);
+        int[] order = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            order[i] = r.nextInt(poolSize);
+        }
+        // warm up, then measure
+        for (int i = 0; i < LOOKUPS / 4; i++) {
+            bp.getPage(tid, pids[order[i]], Permissions.READ_ONLY);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            bp.getPage(tid, pids[order[i]], Permissions.READ_ONLY);
+        }
+        long elapsed = System.nanoTime() - start;
+        bp.transactionComplete(tid);
+        return (double) elapsed / LOOKUPS;
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures bulk insert throughput into an empty heap file when the file
+ * grows one page at a time and when it grows by 1 MB extents.  Each
+ * transaction inserts a batch of tuples through the BufferPool and commits,
+ * which writes the dirty pages to the file.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=BulkInsertBenchmark
+ */
+public class BulkInsertBenchmark {
+    private static final int TUPLES = 504 * 2000;
+    private static final int BATCH = 504 * 16;
+
+    public static void main(String[] args) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        // warm up the JIT
+        run(pageSize, TUPLES / 10);
+        System.out.println("extent\tpages\tfile size\ttuples/s");
+        for (int extent : new int[] { pageSize, HeapFile.DEFAULT_EXTENT_BYTES }) {
+            run(extent, TUPLES);
+        }
+    }
+
+    private static void run(int extentBytes, int tuples) throws Exception {
+        Database.reset();
+        File file = File.createTempFile("bulk", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        file.delete();
+        HeapFile hf = Utility.openHeapFile(2, file);
+        hf.setExtent(extentBytes, 0);
+        BufferPool bp = Database.getBufferPool();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tuples; i += BATCH) {
+            TransactionId tid = new TransactionId();
+            for (int j = i; j < Math.min(tuples, i + BATCH); j++) {
+                bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(j, 2));
+            }
+            bp.transactionComplete(tid);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (tuples == TUPLES) {
+            System.out.printf("%d KB\t%d\t%d KB\t%.0f%n", extentBytes >> 10, hf.numPages(),
+                    file.length() >> 10, tuples / seconds);
+        }
+    }
+}
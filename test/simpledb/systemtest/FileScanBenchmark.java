@@ -0,0 +1,62 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of full table scans that have to read every page
+ * from the file: the buffer pool is much smaller than the table and
+ * read-ahead is disabled, so the time is dominated by HeapFile.readPage.
+ * The file is freshly written, so the reads are served by the OS page cache
+ * and the benchmark measures the per-page cost of the read path itself.
+ * The scans are then repeated with the table registered as a memory-mapped
+ * table, whose pages are built over the mapping and bypass the pool.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=FileScanBenchmark
+ */
+public class FileScanBenchmark {
+    private static final int POOL_PAGES = 50;
+    private static final int TABLE_PAGES = 4000;
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final long SCANS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * TABLE_PAGES, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+
+        run("buffer pool", f);
+        Catalog c = Database.getCatalog();
+        c.addTable(f, c.getTableName(f.getId()), "", true);
+        run("mapped", f);
+    }
+
+    private static void run(String mode, HeapFile f)
+            throws IOException, DbException, TransactionAbortedException {
+        // warm up the JIT and the OS page cache
+        scan(f);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            scan(f);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long pages = f.numPages() * SCANS;
+        System.out.printf("%s: %d pages (%d MB) scanned %d times in %.2f s: %.0f pages/s, %.1f MB/s%n",
+                mode, f.numPages(), f.getFile().length() >> 20, SCANS,
+                seconds, pages / seconds, pages * BufferPool.getPageSize() / seconds / (1 << 20));
+    }
+
+    private static void scan(HeapFile f)
+            throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, f.getId(), "", 0);
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+        }
+        ss.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
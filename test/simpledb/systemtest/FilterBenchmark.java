@@ -0,0 +1,79 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of Filter over an integer column of a table held
+ * in the buffer pool, with the predicate checking each tuple through the
+ * FieldComparison it chose and, for comparison, through Field.compare, as
+ * Predicate did before: decoding the field into an IntField and switching
+ * on the operator for every tuple.  A tuple keeps the fields decoded from
+ * it, so the pool is emptied and loaded again before each timed scan.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=FilterBenchmark
+ */
+public class FilterBenchmark {
+    private static final int TABLE_PAGES = 400;
+    private static final int TUPLES_PER_PAGE = 503;
+    private static final int SCANS = 20;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * TABLE_PAGES,
+                1 << 16, null, null);
+        // about half of the tuples pass
+        IntField operand = new IntField(1 << 15);
+
+        Predicate typed = new Predicate(0, Predicate.Op.LESS_THAN, operand);
+        Predicate compare = new Predicate(0, Predicate.Op.LESS_THAN, operand) {
+            private static final long serialVersionUID = 1L;
+
+            public boolean filter(Tuple t) {
+                return t.getField(getField()).compare(getOp(), getOperand());
+            }
+        };
+
+        // warm up the JIT
+        run(f, compare);
+        run(f, typed);
+        for (int i = 0; i < 2; i++) {
+            print("Field.compare", run(f, compare));
+            print("FieldComparison", run(f, typed));
+        }
+    }
+
+    /** Returns the nanoseconds taken by SCANS filters over fresh pages */
+    private static long run(HeapFile f, Predicate p) throws Exception {
+        long nanos = 0;
+        for (int i = 0; i < SCANS; i++) {
+            Database.resetBufferPool(2 * TABLE_PAGES);
+            scan(f, null);
+            long start = System.nanoTime();
+            scan(f, p);
+            nanos += System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    private static void print(String mode, long nanos) {
+        double seconds = nanos / 1e9;
+        long tuples = (long) TUPLES_PER_PAGE * TABLE_PAGES * SCANS;
+        System.out.printf("%s: %d tuples filtered in %.2f s: %.1f M tuples/s%n",
+                mode, tuples, seconds, tuples / seconds / 1e6);
+    }
+
+    // scan the table through the predicate, or without one if it is null
+    private static void scan(HeapFile f, Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = new SeqScan(tid, f.getId(), "", 0);
+        if (p != null) {
+            it = new Filter(p, it);
+        }
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures commit throughput as the number of committing threads grows,
+ * with and without a group commit delay.  Every thread runs transactions
+ * that insert one tuple into a table of its own and commit, so that the
+ * threads only share the log.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=GroupCommitBenchmark
+ */
+public class GroupCommitBenchmark {
+    private static final long RUN_MS = 2000;
+    private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+    private static final long[] DELAYS_MICROS = { 0, 1000 };
+
+    public static void main(String[] args) throws Exception {
+        // warm up the JIT
+        run(4, 0, RUN_MS / 4);
+        System.out.println("delay\tthreads\tcommits/s\tforces/commit");
+        for (long delay : DELAYS_MICROS) {
+            for (int threads : THREADS) {
+                run(threads, delay, RUN_MS);
+            }
+        }
+        new File("log").delete();
+    }
+
+    private static void run(int threads, long delayMicros, final long runMs) throws Exception {
+        Database.reset();
+        Database.getLogFile().setMaxCommitDelay(delayMicros);
+        final HeapFile[] files = new HeapFile[threads];
+        for (int i = 0; i < threads; i++) {
+            File file = File.createTempFile("commit", ".dat");
+            file.deleteOnExit();
+            new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+            file.delete();
+            files[i] = Utility.openHeapFile(2, file);
+        }
+
+        final AtomicLong commits = new AtomicLong();
+        final CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final HeapFile hf = files[i];
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        long end = System.currentTimeMillis() + runMs;
+                        for (int j = 0; System.currentTimeMillis() < end; j++) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                                    Utility.getHeapTuple(j, 2));
+                            t.commit();
+                            commits.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        long forcesBefore = Database.getLogFile().getForceCount();
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread w : workers) {
+            w.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        if (runMs == RUN_MS) {
+            System.out.printf("%d us\t%d\t%.0f\t%.2f%n", delayMicros, threads,
+                    commits.get() / seconds, (Database.getLogFile().getForceCount() - forcesBefore) / (double) commits.get());
+        }
+    }
+}
@@ -427,6 +427,37 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestUnrecoveredLogKept()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a log left by a crash has to be recovered before anything is
+        // logged; a log left by a clean shutdown needs no recovery
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        LogFile log = new LogFile(new File("log"));
+        assertTrue(log.needsRecovery());
+        try {
+            log.logXactionBegin(new TransactionId());
+            fail("expected appending to an unrecovered log to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        log.recover();
+        assertFalse(log.needsRecovery());
+        log.shutdown();
+        assertFalse(new LogFile(new File("log")).needsRecovery());
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
@@ -0,0 +1,62 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures how read-ahead overlaps a sequential scan with its I/O.  The
+ * table sits in the OS page cache, so each page read is slowed down by a
+ * fixed delay standing in for a disk access.  For each prefetch depth the
+ * table is scanned from a cold buffer pool and the scan's elapsed time and
+ * time spent waiting on I/O are reported.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=ReadAheadBenchmark
+ */
+public class ReadAheadBenchmark {
+    private static final int PAGES = 200;
+    private static final long READ_DELAY_MS = 2;
+    private static final int[] DEPTHS = { 0, 1, 2, 4, 8 };
+
+    /** A heap file whose page reads take at least READ_DELAY_MS */
+    static class SlowHeapFile extends HeapFile {
+        public SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            try {
+                Thread.sleep(READ_DELAY_MS);
+            } catch (InterruptedException e) {
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1 << 16, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        System.out.println("depth\telapsed ms\tI/O wait ms\tI/O wait");
+        for (int depth : DEPTHS) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            SeqScan ss = new SeqScan(tid, table.getId(), "", depth);
+            ss.open();
+            while (ss.hasNext()) {
+                ss.next();
+            }
+            ss.close();
+            Database.getBufferPool().transactionComplete(tid);
+            ReadAhead ra = ss.getReadAhead();
+            System.out.println(depth + "\t" + ra.getElapsedNanos() / 1000000 + "\t\t"
+                    + ra.getIoWaitNanos() / 1000000 + "\t\t"
+                    + String.format("%.0f%%", 100.0 * ra.getIoWaitNanos() / ra.getElapsedNanos()));
+        }
+    }
+}
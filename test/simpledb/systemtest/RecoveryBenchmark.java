@@ -0,0 +1,87 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures how long recovery takes after a crash, as the number of
+ * recovery threads grows.  The log holds committed transactions that each
+ * insert one tuple into every page of a table.  The crash either lost all
+ * of the pages, so that every change is redone, or came after the pages
+ * were written, so that their page LSNs let recovery skip every change.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=RecoveryBenchmark
+ */
+public class RecoveryBenchmark {
+    private static final int PAGES = 1000;
+    private static final int TRANSACTIONS = 20;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("recovery", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        file.delete();
+        deleteLog();
+
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, file);
+        HeapPage[] pages = new HeapPage[PAGES];
+        for (int i = 0; i < PAGES; i++) {
+            pages[i] = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            hf.writePage(pages[i]);
+        }
+        LogFile log = Database.getLogFile();
+        for (int t = 0; t < TRANSACTIONS; t++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int i = 0; i < PAGES; i++) {
+                HeapPage next = new HeapPage(pages[i].getId(), pages[i].getPageData());
+                next.insertTuple(Utility.getHeapTuple(t, 2));
+                next.setLSN(log.logWrite(tid, pages[i], next));
+                pages[i] = next;
+            }
+            log.logCommit(tid);
+        }
+        log.force();
+
+        // warm up the JIT
+        recover(file, pages, false, 2);
+        System.out.println("pages\tthreads\trecovery ms");
+        for (boolean written : new boolean[] { false, true }) {
+            for (int threads : THREADS) {
+                long ms = recover(file, pages, written, threads);
+                System.out.printf("%s\t%d\t%d%n", written ? "written" : "lost", threads, ms);
+            }
+        }
+        deleteLog();
+    }
+
+    /** Delete the log file and its segments */
+    private static void deleteLog() {
+        for (File f : new File(".").listFiles()) {
+            if (f.getName().matches("log(\\.[0-9]+)?")) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Restart after a crash that left the table either empty or with the
+     * latest pages, and returns how long recovery took in milliseconds.
+     */
+    private static long recover(File file, HeapPage[] pages, boolean written, int threads)
+            throws Exception {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, file);
+        for (HeapPage p : pages) {
+            hf.writePage(written ? p
+                    : new HeapPage(p.getId(), HeapPage.createEmptyPageData()));
+        }
+        Database.getLogFile().setRecoveryThreads(threads);
+        long begin = System.nanoTime();
+        Database.getLogFile().recover();
+        return (System.nanoTime() - begin) / 1000000;
+    }
+}
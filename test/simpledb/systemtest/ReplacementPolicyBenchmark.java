@@ -0,0 +1,109 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the buffer pool hit ratio of the replacement policies on
+ * workloads modelled on the system tests:
+ * <ul>
+ * <li>rescan: a table slightly larger than the pool is scanned repeatedly
+ *     (ScanTest.testCache with a tighter pool)
+ * <li>join: a nested loops join whose inner table does not fit in the pool
+ *     (JoinTest)
+ * <li>hot+scan: point reads of a small hot set of pages interleaved with
+ *     scans of a large table (EvictionTest running next to OLTP traffic);
+ *     only the hit ratio of the point reads is reported
+ * </ul>
+ *
+ * Run with: ant runbenchmark -Dbenchmark=ReplacementPolicyBenchmark
+ */
+public class ReplacementPolicyBenchmark {
+    private static final int POOL_PAGES = 32;
+    private static final int TUPLES_PER_PAGE = 504;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile rescan = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 40, null, null);
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 200, null, null);
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 36, null, null);
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 16, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 200, null, null);
+
+        System.out.println("policy\trescan\tjoin\thot+scan");
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            StringBuilder line = new StringBuilder(kind.toString());
+            line.append('\t').append(percent(runRescan(kind, rescan)));
+            line.append('\t').append(percent(runJoin(kind, outer, inner)));
+            line.append('\t').append(percent(runHotAndScan(kind, hot, big)));
+            System.out.println(line);
+        }
+    }
+
+    private static String percent(double ratio) {
+        return String.format("%.1f%%", ratio * 100);
+    }
+
+    private static double hitRatio(BufferPool bp) {
+        double hits = bp.getHitCount();
+        return hits / (hits + bp.getMissCount());
+    }
+
+    private static void scan(TransactionId tid, DbFile f)
+            throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(tid, f.getId(), "");
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+        }
+        ss.close();
+    }
+
+    private static double runRescan(ReplacementPolicy.Kind kind, HeapFile f)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, kind);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            scan(tid, f);
+        }
+        bp.transactionComplete(tid);
+        return hitRatio(bp);
+    }
+
+    private static double runJoin(ReplacementPolicy.Kind kind, HeapFile outer, HeapFile inner)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, kind);
+        TransactionId tid = new TransactionId();
+        Join j = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), ""), new SeqScan(tid, inner.getId(), ""));
+        j.open();
+        while (j.hasNext()) {
+            j.next();
+        }
+        j.close();
+        bp.transactionComplete(tid);
+        return hitRatio(bp);
+    }
+
+    private static double runHotAndScan(ReplacementPolicy.Kind kind, HeapFile hot, HeapFile big)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, kind);
+        TransactionId tid = new TransactionId();
+        Random r = new Random(1);
+        int hotPages = hot.numPages();
+        long hits = 0, lookups = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                long before = bp.getHitCount();
+                bp.getPage(tid, new HeapPageId(hot.getId(), r.nextInt(hotPages)), Permissions.READ_ONLY);
+                hits += bp.getHitCount() - before;
+                lookups++;
+            }
+            scan(tid, big);
+        }
+        bp.transactionComplete(tid);
+        return (double) hits / lookups;
+    }
+}
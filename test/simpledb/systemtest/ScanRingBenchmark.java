@@ -0,0 +1,110 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how much a sequential scan of a large table hurts the buffer pool
+ * hit ratio of point reads running alongside it.  A point read of a page of
+ * a small, hot table is issued after every few tuples the scan returns; the
+ * hit ratio of those reads is reported with and without scan rings, together
+ * with the hit ratio of TableStats and of an Aggregate over the large table
+ * when they run between two batches of point reads.
+ *
+ * Run with: ant runbenchmark -Dbenchmark=ScanRingBenchmark
+ */
+public class ScanRingBenchmark {
+    private static final int POOL_PAGES = BufferPool.DEFAULT_PAGES;
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int TUPLES_PER_POINT_READ = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 20, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 400, null, null);
+        Database.getCatalog().addTable(big, "big");
+
+        System.out.println("rings\tscan\ttablestats\taggregate");
+        for (boolean rings : new boolean[] { false, true }) {
+            StringBuilder line = new StringBuilder(rings ? "on" : "off");
+            line.append('\t').append(percent(scanWithPointReads(rings, hot, big)));
+            line.append('\t').append(percent(pointReadsAround(rings, hot, big, false)));
+            line.append('\t').append(percent(pointReadsAround(rings, hot, big, true)));
+            System.out.println(line);
+        }
+    }
+
+    private static String percent(double ratio) {
+        return String.format("%.1f%%", ratio * 100);
+    }
+
+    private static BufferPool newPool(boolean rings) {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        if (!rings) {
+            bp.setScanRingThreshold(Double.POSITIVE_INFINITY);
+        }
+        return bp;
+    }
+
+    /** Issue a point read on the hot table and report whether it was a hit */
+    private static boolean pointRead(BufferPool bp, TransactionId tid, HeapFile hot, Random r)
+            throws DbException, TransactionAbortedException {
+        long before = bp.getHitCount();
+        bp.getPage(tid, new HeapPageId(hot.getId(), r.nextInt(hot.numPages())), Permissions.READ_ONLY);
+        return bp.getHitCount() > before;
+    }
+
+    private static double scanWithPointReads(boolean rings, HeapFile hot, HeapFile big)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = newPool(rings);
+        TransactionId tid = new TransactionId();
+        Random r = new Random(1);
+        int hits = 0, reads = 0, n = 0;
+        for (int round = 0; round < 3; round++) {
+            SeqScan ss = new SeqScan(tid, big.getId(), "");
+            ss.open();
+            while (ss.hasNext()) {
+                ss.next();
+                if (++n % TUPLES_PER_POINT_READ == 0) {
+                    hits += pointRead(bp, tid, hot, r) ? 1 : 0;
+                    reads++;
+                }
+            }
+            ss.close();
+        }
+        bp.transactionComplete(tid);
+        return (double) hits / reads;
+    }
+
+    /**
+     * Warm up the hot table, run TableStats or an Aggregate over the big
+     * table, and report the hit ratio of the point reads that follow.
+     */
+    private static double pointReadsAround(boolean rings, HeapFile hot, HeapFile big, boolean aggregate)
+            throws IOException, DbException, TransactionAbortedException {
+        BufferPool bp = newPool(rings);
+        TransactionId tid = new TransactionId();
+        Random r = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            pointRead(bp, tid, hot, r);
+        }
+        if (aggregate) {
+            Aggregate agg = new Aggregate(new SeqScan(tid, big.getId(), ""), 0, -1, Aggregator.Op.SUM);
+            agg.open();
+            while (agg.hasNext()) {
+                agg.next();
+            }
+            agg.close();
+        } else {
+            new TableStats(big.getId(), 1000);
+        }
+        int hits = 0;
+        for (int i = 0; i < 1000; i++) {
+            hits += pointRead(bp, tid, hot, r) ? 1 : 0;
+        }
+        bp.transactionComplete(tid);
+        return hits / 1000.0;
+    }
+}
@@ -81,6 +81,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        new File(temp.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
@@ -88,7 +89,9 @@ public class SystemTestUtil {
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
-            int value = ((IntField)tuple.getField(i)).getValue();
+            Field f = tuple.getField(i);
+            int value = f instanceof LongField
+                    ? Math.toIntExact(((LongField) f).getValue()) : ((IntField) f).getValue();
             list.add(value);
         }
         return list;
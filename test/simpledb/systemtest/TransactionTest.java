@@ -226,7 +226,7 @@ public class TransactionTest extends SimpleDbTestBase {
 //        validateTransactions(10);
 //    }
 
-    @Test public void testAllDirtyFails()
+    @Test public void testDirtyPageStolen()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
@@ -239,11 +239,14 @@ public class TransactionTest extends SimpleDbTestBase {
         // Insert a new row
         EvictionTest.insertRow(f, t);
 
-        // Scanning the table must fail because it can't evict the dirty page
-        try {
-            EvictionTest.findMagicTuple(f, t);
-            fail("Expected scan to run out of available buffer pages");
-        } catch (DbException e) {}
+        // Scanning the table evicts the dirty page after logging it
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.abort();
+
+        // The abort rolled the evicted page back from the log
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(f, t));
         t.commit();
     }
 